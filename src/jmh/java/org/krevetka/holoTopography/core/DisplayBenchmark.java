@@ -0,0 +1,79 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Подготовка точек к отображению: прореживание, нормализация в габариты голограммы
+ * с поиском цвета по палитре и чтение буфера в цикле отправки
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DisplayBenchmark {
+    private static final int PARTICLES_PER_CHUNK = 25;
+    private static final float PARTICLE_SIZE = 1.2f;
+    private static final int STRIPES = 5;
+
+    @Param({"10", "30", "50", "200"})
+    public int radius;
+
+    private HeightField heightField;
+    private BlockPalette palette;
+    private Location displayLocation;
+    private TerrainPoints points;
+    private DisplayBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        heightField = new SyntheticTerrain(42).heightField(radius);
+        palette = SyntheticTerrain.palette();
+        displayLocation = new Location(null, 0.5, 70, 0.5);
+        points = LodDecimator.decimate(heightField, LodDecimator.pointBudget(heightField, PARTICLES_PER_CHUNK));
+        buffer = DisplayBuffer.build(points, heightField, displayLocation, PARTICLE_SIZE, STRIPES, palette);
+    }
+
+    @Benchmark
+    public void decimate(Blackhole blackhole) {
+        blackhole.consume(LodDecimator.decimate(heightField, LodDecimator.pointBudget(heightField, PARTICLES_PER_CHUNK)));
+    }
+
+    @Benchmark
+    public void contours(Blackhole blackhole) {
+        blackhole.consume(ContourBuilder.build(heightField, 4, 1.0));
+    }
+
+    /**
+     * Нормализация и проекция точек в пространство голограммы, DustOptions по палитре
+     */
+    @Benchmark
+    public void project(Blackhole blackhole) {
+        blackhole.consume(DisplayBuffer.build(points, heightField, displayLocation, PARTICLE_SIZE, STRIPES, palette));
+    }
+
+    /**
+     * Чтение координат и цвета каждой точки, как в цикле отправки частиц (без самой отправки)
+     */
+    @Benchmark
+    public void readBuffer(Blackhole blackhole) {
+        for (int point = 0; point < buffer.pointCount(); point++) {
+            if (buffer.isPresent(point)) {
+                blackhole.consume(buffer.x(point));
+                blackhole.consume(buffer.y(point));
+                blackhole.consume(buffer.z(point));
+                blackhole.consume(buffer.dustOptions(point));
+                blackhole.consume(buffer.bucket(point));
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.ChunkSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Цикл сканирования TerrainScanner без мира: разбор снимков чанков в колонки
+ * и нанесение колонок на карту высот
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanBenchmark {
+    @Param({"10", "30", "50", "200"})
+    public int radius;
+
+    private ChunkSnapshot[] snapshots;
+    private ChunkColumns[] columns;
+
+    @Setup
+    public void setUp() {
+        final SyntheticTerrain terrain = new SyntheticTerrain(42);
+        snapshots = terrain.snapshots(radius);
+        columns = terrain.columns(radius);
+    }
+
+    /**
+     * ChunkColumns.of для каждого чанка карты (работа потоков сканера над снимками)
+     */
+    @Benchmark
+    public void readSnapshots(Blackhole blackhole) {
+        for (ChunkSnapshot snapshot : snapshots) {
+            blackhole.consume(ChunkColumns.of(snapshot, SyntheticTerrain.MIN_HEIGHT));
+        }
+    }
+
+    /**
+     * Нанесение колонок на новую карту высот и подсчёт её границ, как в конце сканирования
+     */
+    @Benchmark
+    public void fillHeightField(Blackhole blackhole) {
+        final HeightField heightField = new HeightField(0, SyntheticTerrain.SEA_LEVEL, 0, radius);
+        final double radiusSquared = (double) radius * radius;
+        for (ChunkColumns chunk : columns) {
+            heightField.fill(chunk, radiusSquared);
+        }
+        heightField.recomputeBounds();
+        blackhole.consume(heightField);
+    }
+}
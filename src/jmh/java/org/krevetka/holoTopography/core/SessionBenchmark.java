@@ -0,0 +1,64 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Создание и остановка сессий: сессия, рендерер частиц, первое построение буфера и закрытие.
+ * Engine без сервера не создать, поэтому замеряется та же цепочка, которую он вызывает
+ * в createSession и stopSession, без регистрации в планировщике и событиях.
+ * Буфер, который движок строит в пуле, здесь строится в вызывающем потоке и сразу подменяется.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionBenchmark {
+    @Param({"10", "30", "50", "200"})
+    public int radius;
+
+    private HeightField heightField;
+    private BlockPalette palette;
+    private Location center;
+    private Location displayLocation;
+
+    @Setup
+    public void setUp() {
+        heightField = new SyntheticTerrain(42).heightField(radius);
+        palette = SyntheticTerrain.palette();
+        center = new Location(null, 0, SyntheticTerrain.SEA_LEVEL, 0);
+        displayLocation = new Location(null, 5.5, 70, 0.5);
+    }
+
+    @Benchmark
+    public void createAndStop(Blackhole blackhole) {
+        final HologramSession session = new HologramSession(UUID.randomUUID(), center, displayLocation, radius, RenderMode.POINTS);
+        session.setRenderer(new ParticleRenderer(this::bufferTask, Runnable::run, Logger.getAnonymousLogger(), 80, 70));
+        session.update(heightField);
+        session.rebuild();
+        session.renderer().publish();
+        blackhole.consume(session.renderer().particleDemand());
+        session.close();
+    }
+
+    private Supplier<DisplayBuffer> bufferTask(HologramSession session) {
+        final HeightField copy = session.heightField().copy();
+        return () -> {
+            copy.recomputeBounds();
+            final TerrainPoints points = LodDecimator.decimate(copy, LodDecimator.pointBudget(copy, 25));
+            return DisplayBuffer.build(points, copy, session.displayLocation(), 1.2f, 5, palette);
+        };
+    }
+}
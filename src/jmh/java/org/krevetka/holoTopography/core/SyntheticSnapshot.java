@@ -0,0 +1,116 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+import org.bukkit.block.data.BlockData;
+
+/**
+ * Снимок чанка синтетического рельефа на массивах: верхний блок и материал поверхности каждой колонки,
+ * ниже поверхности — камень, выше — воздух. Обращения стоят столько же, сколько чтение массива,
+ * поэтому замеры сканирования не включают стоимость самого снимка.
+ * Отвечает только на методы, которые читает ChunkColumns.
+ */
+final class SyntheticSnapshot implements ChunkSnapshot {
+    private final int chunkX;
+    private final int chunkZ;
+    private final int[] heights;
+    private final Material[] surface;
+
+    /**
+     * @param heights высота верхнего блока колонки localX * 16 + localZ
+     * @param surface материал верхнего блока колонки
+     */
+    SyntheticSnapshot(int chunkX, int chunkZ, int[] heights, Material[] surface) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.heights = heights;
+        this.surface = surface;
+    }
+
+    @Override
+    public int getX() {
+        return chunkX;
+    }
+
+    @Override
+    public int getZ() {
+        return chunkZ;
+    }
+
+    @Override
+    public int getHighestBlockYAt(int x, int z) {
+        return heights[x * 16 + z];
+    }
+
+    @Override
+    public Material getBlockType(int x, int y, int z) {
+        final int column = x * 16 + z;
+        return y == heights[column] ? surface[column] : y < heights[column] ? Material.STONE : Material.AIR;
+    }
+
+    @Override
+    public String getWorldName() {
+        throw new UnsupportedOperationException("getWorldName");
+    }
+
+    @Override
+    public BlockData getBlockData(int x, int y, int z) {
+        throw new UnsupportedOperationException("getBlockData");
+    }
+
+    @Override
+    public int getData(int x, int y, int z) {
+        throw new UnsupportedOperationException("getData");
+    }
+
+    @Override
+    public int getBlockSkyLight(int x, int y, int z) {
+        throw new UnsupportedOperationException("getBlockSkyLight");
+    }
+
+    @Override
+    public int getBlockEmittedLight(int x, int y, int z) {
+        throw new UnsupportedOperationException("getBlockEmittedLight");
+    }
+
+    @Override
+    public Biome getBiome(int x, int z) {
+        throw new UnsupportedOperationException("getBiome");
+    }
+
+    @Override
+    public Biome getBiome(int x, int y, int z) {
+        throw new UnsupportedOperationException("getBiome");
+    }
+
+    @Override
+    public double getRawBiomeTemperature(int x, int z) {
+        throw new UnsupportedOperationException("getRawBiomeTemperature");
+    }
+
+    @Override
+    public double getRawBiomeTemperature(int x, int y, int z) {
+        throw new UnsupportedOperationException("getRawBiomeTemperature");
+    }
+
+    @Override
+    public long getCaptureFullTime() {
+        throw new UnsupportedOperationException("getCaptureFullTime");
+    }
+
+    @Override
+    public boolean isSectionEmpty(int sy) {
+        throw new UnsupportedOperationException("isSectionEmpty");
+    }
+
+    @Override
+    public boolean contains(BlockData block) {
+        throw new UnsupportedOperationException("contains");
+    }
+
+    @Override
+    public boolean contains(Biome biome) {
+        throw new UnsupportedOperationException("contains");
+    }
+}
@@ -0,0 +1,105 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+
+/**
+ * Детерминированный рельеф в памяти вместо мира: холмы из синусоид и шум по хэшу координат.
+ * Материал зависит от высоты (вода, песок, трава, камень, снег), как на обычной местности.
+ * Снимки чанков — {@link SyntheticSnapshot} на массивах, без прокси и отражения.
+ */
+final class SyntheticTerrain {
+    static final int SEA_LEVEL = 62;
+    static final int MIN_HEIGHT = -64;
+
+    private final long seed;
+
+    SyntheticTerrain(long seed) {
+        this.seed = seed;
+    }
+
+    int height(int x, int z) {
+        final double hills = 14 * Math.sin(x * 0.043) + 9 * Math.cos(z * 0.061) + 5 * Math.sin((x + z) * 0.11);
+        long hash = (x * 0x9E3779B97F4A7C15L) ^ (z * 0xC2B2AE3D27D4EB4FL) ^ seed;
+        hash ^= hash >>> 31;
+        return SEA_LEVEL + 4 + (int) hills + (int) Math.floorMod(hash, 3L) - 1;
+    }
+
+    Material material(int height) {
+        if (height < SEA_LEVEL) {
+            return Material.WATER;
+        }
+        if (height < SEA_LEVEL + 2) {
+            return Material.SAND;
+        }
+        if (height < SEA_LEVEL + 18) {
+            return Material.GRASS_BLOCK;
+        }
+        return height < SEA_LEVEL + 24 ? Material.STONE : Material.SNOW_BLOCK;
+    }
+
+    /**
+     * Снимок чанка: колонки посчитаны заранее, чтобы в замерах был только разбор снимка
+     */
+    ChunkSnapshot snapshot(int chunkX, int chunkZ) {
+        final int[] heights = new int[ChunkColumns.COLUMNS];
+        final Material[] surface = new Material[ChunkColumns.COLUMNS];
+        for (int localX = 0; localX < 16; localX++) {
+            for (int localZ = 0; localZ < 16; localZ++) {
+                final int worldY = Math.max(SEA_LEVEL, height((chunkX << 4) + localX, (chunkZ << 4) + localZ));
+                heights[localX * 16 + localZ] = worldY;
+                surface[localX * 16 + localZ] = material(height((chunkX << 4) + localX, (chunkZ << 4) + localZ));
+            }
+        }
+        return new SyntheticSnapshot(chunkX, chunkZ, heights, surface);
+    }
+
+    /**
+     * Колонки всех чанков, покрывающих круг радиуса radius вокруг (0, 0)
+     */
+    ChunkColumns[] columns(int radius) {
+        final ChunkSnapshot[] snapshots = snapshots(radius);
+        final ChunkColumns[] columns = new ChunkColumns[snapshots.length];
+        for (int i = 0; i < snapshots.length; i++) {
+            columns[i] = ChunkColumns.of(snapshots[i], MIN_HEIGHT);
+        }
+        return columns;
+    }
+
+    ChunkSnapshot[] snapshots(int radius) {
+        final int from = -radius >> 4;
+        final int to = radius >> 4;
+        final ChunkSnapshot[] snapshots = new ChunkSnapshot[(to - from + 1) * (to - from + 1)];
+        int i = 0;
+        for (int chunkX = from; chunkX <= to; chunkX++) {
+            for (int chunkZ = from; chunkZ <= to; chunkZ++) {
+                snapshots[i++] = snapshot(chunkX, chunkZ);
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Отсканированная карта высот радиуса radius вокруг (0, 0)
+     */
+    HeightField heightField(int radius) {
+        final HeightField heightField = new HeightField(0, SEA_LEVEL, 0, radius);
+        for (ChunkColumns chunk : columns(radius)) {
+            heightField.fill(chunk, (double) radius * radius);
+        }
+        heightField.recomputeBounds();
+        return heightField;
+    }
+
+    /**
+     * Палитра без сервера: BlockPalette.load читает цвета карты через реестры Bukkit
+     */
+    static BlockPalette palette() {
+        final Material[] materials = Material.values();
+        final int[] colors = new int[materials.length];
+        for (int ordinal = 0; ordinal < colors.length; ordinal++) {
+            colors[ordinal] = (ordinal * 0x2F1B3D) & 0xFFFFFF;
+        }
+        return new BlockPalette(colors);
+    }
+}
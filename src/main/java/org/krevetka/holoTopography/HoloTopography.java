@@ -4,6 +4,9 @@ import org.bukkit.ChatColor;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.krevetka.holoTopography.commands.HoloTopographyCommand;
 import org.krevetka.holoTopography.core.Engine;
+import org.krevetka.holoTopography.core.Settings;
+
+import java.util.List;
 
 public class HoloTopography extends JavaPlugin {
 
@@ -14,12 +17,8 @@ public class HoloTopography extends JavaPlugin {
         // Сохраняем конфигурацию по умолчанию
         saveDefaultConfig();
         
-        // Загружаем настройки из конфигурации
-        double defaultRenderDistance = getConfig().getDouble("defaultSize", 30.0);
-        int particlesPerChunk = getConfig().getInt("particlesPerChunk", 15);
-        
-        // Инициализация движка рендеринга
-        engine = new Engine(getConfig().getDouble("defaultRenderDistance", 20.0), getConfig().getInt("particlesPerChunk", 5));
+        // Инициализация движка рендеринга с настройками из конфигурации
+        engine = new Engine(Settings.load(getConfig(), getLogger()));
 
         // Регистрация команд
         getCommand("holotopo").setExecutor(new HoloTopographyCommand(this, engine));
@@ -30,10 +29,10 @@ public class HoloTopography extends JavaPlugin {
     @Override
     public void onDisable() {
         getLogger().info("HoloTopography выключен!");
-        // Здесь можно добавить логику для корректного завершения всех сессий
         if (engine != null) {
             // Останавливаем все активные сессии
             getLogger().info("Останавливаем все активные сессии визуализации...");
+            engine.shutdown();
         }
     }
 
@@ -44,6 +43,14 @@ public class HoloTopography extends JavaPlugin {
         getLogger().info("Конфигурация перезагружена");
     }
 
+    /**
+     * Собирает снимок настроек из текущей конфигурации и передаёт его движку: активные карты
+     * применят его в ближайшем тике. Возвращает ключи, которые вступят в силу только после перезапуска.
+     */
+    public List<String> applySettings() {
+        return engine.applySettings(Settings.load(getConfig(), getLogger()));
+    }
+
     public Engine getEngine() {
         return engine;
     }
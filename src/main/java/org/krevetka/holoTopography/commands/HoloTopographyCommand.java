@@ -1,5 +1,6 @@
 package org.krevetka.holoTopography.commands;
 
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
@@ -9,6 +10,9 @@ import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 import org.krevetka.holoTopography.HoloTopography;
 import org.krevetka.holoTopography.core.Engine;
+import org.krevetka.holoTopography.core.Metrics;
+import org.krevetka.holoTopography.core.RenderMode;
+import org.krevetka.holoTopography.core.Settings;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -19,7 +23,7 @@ public class HoloTopographyCommand implements CommandExecutor, TabCompleter {
 
     private final HoloTopography plugin;
     private final Engine engine;
-    private final List<String> subCommands = Arrays.asList("create", "stop", "help", "settings", "info", "reload");
+    private final List<String> subCommands = Arrays.asList("create", "stop", "mode", "follow", "shared", "help", "settings", "info", "stats", "reload");
 
     public HoloTopographyCommand(HoloTopography plugin, Engine engine) {
         this.plugin = plugin;
@@ -39,23 +43,33 @@ public class HoloTopographyCommand implements CommandExecutor, TabCompleter {
         }
 
         switch (args[0].toLowerCase()) {
-            case "create" -> {
-                double size = plugin.getConfig().getDouble("defaultSize", 30.0);
-                if (args.length > 1) {
-                    try {
-                        size = Double.parseDouble(args[1]);
-                        if (size <= 0 || size > plugin.getConfig().getDouble("maxSize", 50.0)) {
-                            player.sendMessage(ChatColor.RED + "Неверное значение размера. Должно быть между 1 и " + 
-                                    plugin.getConfig().getDouble("maxSize", 50.0) + ".");
-                            return true;
-                        }
-                    } catch (NumberFormatException e) {
-                        player.sendMessage(ChatColor.RED + "Неверный формат числа: " + args[1]);
-                        return true;
-                    }
+            case "create" -> createMap(player, args, 1);
+            case "shared" -> handleShared(player, args);
+            case "mode" -> {
+                if (args.length < 2) {
+                    player.sendMessage(ChatColor.YELLOW + "Использование: /holotopo mode <" + String.join("|", renderModeNames()) + ">");
+                    return true;
+                }
+                RenderMode renderMode = parseRenderMode(args[1]);
+                if (renderMode == null) {
+                    player.sendMessage(ChatColor.RED + "Неизвестный режим: " + args[1] + ". Доступны: " + renderModeNames());
+                } else if (engine.setRenderMode(player.getUniqueId(), renderMode)) {
+                    player.sendMessage(ChatColor.GREEN + "Режим отображения: " + renderMode.name().toLowerCase());
+                } else {
+                    player.sendMessage(ChatColor.RED + "У вас нет активной карты.");
+                }
+            }
+            case "follow" -> {
+                Engine.HologramInfo info = engine.getSessionInfo(player.getUniqueId());
+                if (info == null) {
+                    player.sendMessage(ChatColor.RED + "У вас нет активной карты.");
+                    return true;
                 }
-                engine.createSession(player, player.getLocation(), size);
-                player.sendMessage(ChatColor.GREEN + "Топографическая карта создана с радиусом " + size + " блоков.");
+                boolean following = !info.following();
+                engine.setFollowing(player, following);
+                player.sendMessage(ChatColor.GREEN + (following
+                        ? "Карта следует за вами."
+                        : "Карта закреплена на месте."));
             }
             case "stop" -> {
                 if (engine.stopSession(player.getUniqueId())) {
@@ -74,7 +88,7 @@ public class HoloTopographyCommand implements CommandExecutor, TabCompleter {
                     case "particles" -> {
                         if (args.length < 3) {
                             player.sendMessage(ChatColor.YELLOW + "Текущая плотность частиц: " + 
-                                    plugin.getConfig().getInt("particlesPerChunk", 15));
+                                    engine.settings().particlesPerChunk());
                             player.sendMessage(ChatColor.YELLOW + "Использование: /holotopo settings particles <1-100>");
                             return true;
                         }
@@ -88,8 +102,9 @@ public class HoloTopographyCommand implements CommandExecutor, TabCompleter {
                             
                             plugin.getConfig().set("particlesPerChunk", density);
                             plugin.saveConfig();
-                            player.sendMessage(ChatColor.GREEN + "Плотность частиц установлена на " + density);
-                            player.sendMessage(ChatColor.GREEN + "Перезапустите карту командой /holotopo create для применения изменений.");
+                            plugin.applySettings();
+                            player.sendMessage(ChatColor.GREEN + "Плотность частиц установлена на " + density
+                                    + ", активные карты обновятся сами.");
                         } catch (NumberFormatException e) {
                             player.sendMessage(ChatColor.RED + "Неверный формат числа: " + args[2]);
                         }
@@ -109,8 +124,9 @@ public class HoloTopographyCommand implements CommandExecutor, TabCompleter {
                             
                             plugin.getConfig().set("particleSize", size);
                             plugin.saveConfig();
-                            player.sendMessage(ChatColor.GREEN + "Размер частиц установлен на " + size);
-                            player.sendMessage(ChatColor.GREEN + "Перезапустите карту для применения изменений.");
+                            plugin.applySettings();
+                            player.sendMessage(ChatColor.GREEN + "Размер частиц установлен на " + size
+                                    + ", активные карты обновятся сами.");
                         } catch (NumberFormatException e) {
                             player.sendMessage(ChatColor.RED + "Неверный формат числа: " + args[2]);
                         }
@@ -125,17 +141,34 @@ public class HoloTopographyCommand implements CommandExecutor, TabCompleter {
                     Engine.HologramInfo info = engine.getSessionInfo(player.getUniqueId());
                     player.sendMessage(ChatColor.GOLD + "=== Информация о карте ===");
                     player.sendMessage(ChatColor.YELLOW + "Размер карты: " + info.renderDistance() + " блоков");
+                    player.sendMessage(ChatColor.YELLOW + "Режим: " + info.renderMode().name().toLowerCase());
+                    player.sendMessage(ChatColor.YELLOW + "Следование: " + (info.following() ? "включено" : "выключено"));
+                    if (info.shared()) {
+                        player.sendMessage(ChatColor.YELLOW + "Общая карта, участников: " + info.memberCount());
+                    }
                     player.sendMessage(ChatColor.YELLOW + "Активна: " + formatTime(System.currentTimeMillis() - info.createdAt()));
                     player.sendMessage(ChatColor.YELLOW + "Плотность частиц: " + 
-                                       plugin.getConfig().getInt("particlesPerChunk", 15) + "/чанк");
+                                       engine.settings().particlesPerChunk() + "/чанк");
                 } else {
                     player.sendMessage(ChatColor.RED + "У вас нет активной карты.");
                 }
             }
+            case "stats" -> {
+                if (player.hasPermission("holotopo.admin")) {
+                    sendStats(player);
+                } else {
+                    player.sendMessage(ChatColor.RED + "У вас нет прав на использование этой команды.");
+                }
+            }
             case "reload" -> {
                 if (player.hasPermission("holotopo.admin")) {
                     plugin.reloadConfig();
-                    player.sendMessage(ChatColor.GREEN + "Конфигурация перезагружена.");
+                    List<String> restartRequired = plugin.applySettings();
+                    player.sendMessage(ChatColor.GREEN + "Конфигурация перезагружена и применена к активным картам.");
+                    if (!restartRequired.isEmpty()) {
+                        player.sendMessage(ChatColor.YELLOW + "Вступят в силу после перезапуска: "
+                                + String.join(", ", restartRequired));
+                    }
                 } else {
                     player.sendMessage(ChatColor.RED + "У вас нет прав на использование этой команды.");
                 }
@@ -148,12 +181,126 @@ public class HoloTopographyCommand implements CommandExecutor, TabCompleter {
         return true;
     }
 
+    /**
+     * Создаёт карту по аргументам [размер] [режим], начиная с args[from].
+     * Возвращает false, если аргументы неверны.
+     */
+    private boolean createMap(Player player, String[] args, int from) {
+        Settings settings = engine.settings();
+        double size = settings.defaultSize();
+        if (args.length > from) {
+            try {
+                size = Double.parseDouble(args[from]);
+                if (size <= 0 || size > settings.maxSize()) {
+                    player.sendMessage(ChatColor.RED + "Неверное значение размера. Должно быть между 1 и " +
+                            settings.maxSize() + ".");
+                    return false;
+                }
+            } catch (NumberFormatException e) {
+                player.sendMessage(ChatColor.RED + "Неверный формат числа: " + args[from]);
+                return false;
+            }
+        }
+        RenderMode renderMode = RenderMode.POINTS;
+        if (args.length > from + 1) {
+            renderMode = parseRenderMode(args[from + 1]);
+            if (renderMode == null) {
+                player.sendMessage(ChatColor.RED + "Неизвестный режим: " + args[from + 1] + ". Доступны: " + renderModeNames());
+                return false;
+            }
+        }
+        engine.createSession(player, player.getLocation(), size, renderMode);
+        player.sendMessage(ChatColor.GREEN + "Топографическая карта создана с радиусом " + size + " блоков.");
+        return true;
+    }
+
+    private void handleShared(Player player, String[] args) {
+        if (args.length < 2) {
+            player.sendMessage(ChatColor.YELLOW + "Использование: /holotopo shared <create|join|leave>");
+            return;
+        }
+        switch (args[1].toLowerCase()) {
+            case "create" -> {
+                double viewRadius = engine.settings().sharedViewRadius();
+                if (args.length > 4) {
+                    try {
+                        viewRadius = Double.parseDouble(args[4]);
+                        if (viewRadius < 0) {
+                            player.sendMessage(ChatColor.RED + "Радиус видимости не может быть отрицательным.");
+                            return;
+                        }
+                    } catch (NumberFormatException e) {
+                        player.sendMessage(ChatColor.RED + "Неверный формат числа: " + args[4]);
+                        return;
+                    }
+                }
+                if (createMap(player, args, 2)) {
+                    engine.shareSession(player.getUniqueId(), viewRadius);
+                    player.sendMessage(ChatColor.GREEN + "Карта общая: /holotopo shared join " + player.getName()
+                            + (viewRadius > 0 ? ", её также видят все в радиусе " + viewRadius + " блоков." : "."));
+                }
+            }
+            case "join" -> {
+                if (args.length < 3) {
+                    player.sendMessage(ChatColor.YELLOW + "Использование: /holotopo shared join <игрок>");
+                    return;
+                }
+                Player owner = Bukkit.getPlayerExact(args[2]);
+                if (owner == null || !engine.joinSharedSession(owner.getUniqueId(), player)) {
+                    player.sendMessage(ChatColor.RED + "У игрока " + args[2] + " нет общей карты.");
+                    return;
+                }
+                player.sendMessage(ChatColor.GREEN + "Вы смотрите общую карту игрока " + owner.getName() + ".");
+                owner.sendMessage(ChatColor.YELLOW + player.getName() + " присоединился к вашей карте.");
+            }
+            case "leave" -> {
+                if (engine.leaveSharedSession(player.getUniqueId())) {
+                    player.sendMessage(ChatColor.GREEN + "Вы покинули общую карту.");
+                } else {
+                    player.sendMessage(ChatColor.RED + "Вы не смотрите общую карту.");
+                }
+            }
+            default -> player.sendMessage(ChatColor.RED + "Неизвестная команда. Используйте /holotopo shared <create|join|leave>");
+        }
+    }
+
+    private void sendStats(Player player) {
+        Metrics.Snapshot stats = engine.stats();
+        player.sendMessage(ChatColor.GOLD + "=== Статистика HoloTopography ===");
+        player.sendMessage(ChatColor.YELLOW + "Работает: " + formatTime(stats.uptimeMillis()) + ", карт: " + stats.activeSessions()
+                + ", качество: " + Math.round(stats.quality() * 100) + "%");
+        player.sendMessage(ChatColor.YELLOW + "Сканирования: " + stats.scansRunning() + " в работе, " + stats.scansQueued()
+                + " в очереди, чанков загружается: " + stats.prefetchInFlight());
+        player.sendMessage(ChatColor.YELLOW + String.format("Тик движка: среднее %.2f мс, p50 %.2f мс, p99 %.2f мс, макс %.2f мс",
+                stats.tickMeanNanos() / 1e6, stats.tickP50Nanos() / 1e6, stats.tickP99Nanos() / 1e6, stats.tickMaxNanos() / 1e6));
+        player.sendMessage(ChatColor.YELLOW + "Полных сканирований: " + stats.scans() + ", p50 " + stats.scanP50Millis()
+                + " мс, p99 " + stats.scanP99Millis() + " мс, макс " + stats.scanMaxMillis() + " мс");
+        player.sendMessage(ChatColor.YELLOW + String.format("Колонок отсканировано: %d, чанков из кэша: %.1f%%, незагруженных: %d",
+                stats.columnsScanned(), stats.cacheHitRate() * 100, stats.chunksMissing()));
+        player.sendMessage(ChatColor.YELLOW + String.format("Частицы: %.0f за тик, %.0f за тик на карту",
+                stats.particlesPerTick(), stats.particlesPerSession()));
+    }
+
     private void showSettingsMenu(Player player) {
         player.sendMessage(ChatColor.GOLD + "=== Настройки HoloTopography ===");
         player.sendMessage(ChatColor.YELLOW + "/holotopo settings particles <1-100>" + ChatColor.WHITE + " - Изменить плотность частиц");
         player.sendMessage(ChatColor.YELLOW + "/holotopo settings size <0.5-2.0>" + ChatColor.WHITE + " - Изменить размер частиц");
     }
 
+    private RenderMode parseRenderMode(String name) {
+        try {
+            return RenderMode.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private List<String> renderModeNames() {
+        return Arrays.stream(RenderMode.values())
+                .map(mode -> mode.name().toLowerCase())
+                .collect(Collectors.toList());
+    }
+
     private String formatTime(long ms) {
         long seconds = ms / 1000;
         long minutes = seconds / 60;
@@ -164,11 +311,17 @@ public class HoloTopographyCommand implements CommandExecutor, TabCompleter {
 
     private void sendHelpMessage(Player player) {
         player.sendMessage(ChatColor.GOLD + "=== HoloTopography Help ===");
-        player.sendMessage(ChatColor.YELLOW + "/holotopo create [размер]" + ChatColor.WHITE + " - Создать топографическую карту");
+        player.sendMessage(ChatColor.YELLOW + "/holotopo create [размер] [режим]" + ChatColor.WHITE + " - Создать топографическую карту");
         player.sendMessage(ChatColor.YELLOW + "/holotopo stop" + ChatColor.WHITE + " - Остановить текущую карту");
+        player.sendMessage(ChatColor.YELLOW + "/holotopo mode <" + String.join("|", renderModeNames()) + ">" + ChatColor.WHITE + " - Режим отображения карты");
+        player.sendMessage(ChatColor.YELLOW + "/holotopo shared create [размер] [режим] [радиус]" + ChatColor.WHITE + " - Создать общую карту");
+        player.sendMessage(ChatColor.YELLOW + "/holotopo shared join <игрок>" + ChatColor.WHITE + " - Смотреть общую карту игрока");
+        player.sendMessage(ChatColor.YELLOW + "/holotopo shared leave" + ChatColor.WHITE + " - Покинуть общую карту");
+        player.sendMessage(ChatColor.YELLOW + "/holotopo follow" + ChatColor.WHITE + " - Карта следует за вами (повторно - закрепить)");
         player.sendMessage(ChatColor.YELLOW + "/holotopo info" + ChatColor.WHITE + " - Информация о текущей карте");
         player.sendMessage(ChatColor.YELLOW + "/holotopo settings" + ChatColor.WHITE + " - Настройки отображения");
         if (player.hasPermission("holotopo.admin")) {
+            player.sendMessage(ChatColor.YELLOW + "/holotopo stats" + ChatColor.WHITE + " - Статистика нагрузки плагина");
             player.sendMessage(ChatColor.YELLOW + "/holotopo reload" + ChatColor.WHITE + " - Перезагрузить конфигурацию");
         }
         player.sendMessage(ChatColor.YELLOW + "/holotopo help" + ChatColor.WHITE + " - Показать это сообщение");
@@ -180,6 +333,20 @@ public class HoloTopographyCommand implements CommandExecutor, TabCompleter {
             return subCommands.stream()
                     .filter(s -> s.startsWith(args[0].toLowerCase()))
                     .collect(Collectors.toList());
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("shared")) {
+            return Arrays.asList("create", "join", "leave").stream()
+                    .filter(s -> s.startsWith(args[1].toLowerCase()))
+                    .collect(Collectors.toList());
+        } else if (args.length == 3 && args[0].equalsIgnoreCase("shared") && args[1].equalsIgnoreCase("join")) {
+            return Bukkit.getOnlinePlayers().stream()
+                    .map(Player::getName)
+                    .filter(s -> s.toLowerCase().startsWith(args[2].toLowerCase()))
+                    .collect(Collectors.toList());
+        } else if ((args.length == 4 && args[0].equalsIgnoreCase("shared") && args[1].equalsIgnoreCase("create"))
+                || (args.length == 2 && args[0].equalsIgnoreCase("mode")) || (args.length == 3 && args[0].equalsIgnoreCase("create"))) {
+            return renderModeNames().stream()
+                    .filter(s -> s.startsWith(args[args.length - 1].toLowerCase()))
+                    .collect(Collectors.toList());
         } else if (args.length == 2 && args[0].equalsIgnoreCase("settings")) {
             List<String> settingsOptions = Arrays.asList("particles", "size");
             return settingsOptions.stream()
@@ -0,0 +1,323 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.BlockDisplay;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.util.Transformation;
+import org.joml.AxisAngle4f;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Карта из сущностей BlockDisplay: макет из столбиков, по одному на квадрат cellSize x cellSize колонок.
+ * Сущности создаются один раз и меняются только для квадратов, где изменились высота или материал,
+ * поэтому готовая карта ничего не стоит в тике. После изменения блоков пересчитываются
+ * только квадраты изменившихся колонок. Сущности невидимы по умолчанию
+ * и показываются только получателям сессии.
+ */
+final class BlockDisplayRenderer implements HologramRenderer {
+    private static final float MIN_COLUMN_HEIGHT = 0.05f;
+    private static final Material[] MATERIALS = Material.values();
+    // Чем заменять блоки без полной модели (жидкости, растения): бетон ближайшего цвета
+    private static final Material[] SUBSTITUTES = {
+            Material.WHITE_CONCRETE, Material.ORANGE_CONCRETE, Material.MAGENTA_CONCRETE, Material.LIGHT_BLUE_CONCRETE,
+            Material.YELLOW_CONCRETE, Material.LIME_CONCRETE, Material.PINK_CONCRETE, Material.GRAY_CONCRETE,
+            Material.LIGHT_GRAY_CONCRETE, Material.CYAN_CONCRETE, Material.PURPLE_CONCRETE, Material.BLUE_CONCRETE,
+            Material.BROWN_CONCRETE, Material.GREEN_CONCRETE, Material.RED_CONCRETE, Material.BLACK_CONCRETE
+    };
+
+    private final JavaPlugin plugin;
+    private BlockPalette palette;
+    private int maxEntities;
+    private final BlockData[] blockData = new BlockData[MATERIALS.length];
+    private final Set<UUID> viewers = new HashSet<>();
+
+    // Раскладка квадратов и состояние, по которому построена каждая сущность
+    private int side;
+    private int cellSize;
+    private int cellsPerSide;
+    private BlockDisplay[] displays = new BlockDisplay[0];
+    private int[] cellHeights = new int[0];
+    private int[] cellMaterials = new int[0];
+
+    // Геометрия, в которой расставлены сущности: при её смене пересчитываются все сущности
+    private Location anchor;
+    private int minY;
+    private int maxY;
+
+    BlockDisplayRenderer(JavaPlugin plugin, BlockPalette palette, int maxEntities) {
+        this.plugin = plugin;
+        this.palette = palette;
+        this.maxEntities = Math.max(1, maxEntities);
+    }
+
+    /**
+     * Другая палитра или лимит сущностей: при следующем обновлении сущности расставляются заново
+     */
+    @Override
+    public void applySettings(Settings settings) {
+        final int newMaxEntities = Math.max(1, settings.maxDisplayEntities());
+        if (newMaxEntities == maxEntities && settings.palette().equals(palette)) {
+            return;
+        }
+        palette = settings.palette();
+        maxEntities = newMaxEntities;
+        Arrays.fill(blockData, null);
+        side = 0;
+    }
+
+    @Override
+    public void update(HologramSession session) {
+        final HeightField heightField = session.heightField();
+        if (heightField == null) {
+            return;
+        }
+        if (heightField.side() != side) {
+            layout(heightField.side());
+        }
+        final Location displayLocation = session.displayLocation();
+        final Location newAnchor = displayLocation.clone().add(-DisplayBuffer.DISPLAY_WIDTH / 2, 0, -DisplayBuffer.DISPLAY_DEPTH / 2);
+        final boolean geometryChanged = anchor == null || !newAnchor.equals(anchor)
+                || heightField.minY() != minY || heightField.maxY() != maxY;
+        final boolean moved = anchor != null && !newAnchor.equals(anchor);
+        anchor = newAnchor;
+        minY = heightField.minY();
+        maxY = heightField.maxY();
+
+        for (int cellX = 0; cellX < cellsPerSide; cellX++) {
+            for (int cellZ = 0; cellZ < cellsPerSide; cellZ++) {
+                updateCell(heightField, cellX, cellZ, geometryChanged, moved);
+            }
+        }
+    }
+
+    @Override
+    public boolean updatesByColumns() {
+        return true;
+    }
+
+    /**
+     * Пересчитывает квадраты изменившихся колонок. Диапазон высот только расширяется:
+     * тогда столбики остальных квадратов перемасштабируются по сохранённым высотам, без обхода колонок.
+     * Сужение диапазона дождётся полного обновления.
+     */
+    @Override
+    public void updateColumns(HologramSession session, BitSet dirty) {
+        final HeightField heightField = session.heightField();
+        if (heightField.side() != side || anchor == null) {
+            heightField.recomputeBounds();
+            update(session);
+            return;
+        }
+        int newMinY = minY;
+        int newMaxY = maxY;
+        final BitSet dirtyCells = new BitSet(displays.length);
+        for (int index = dirty.nextSetBit(0); index >= 0; index = dirty.nextSetBit(index + 1)) {
+            if (heightField.isPresent(index)) {
+                newMinY = Math.min(newMinY, heightField.offsetY(index));
+                newMaxY = Math.max(newMaxY, heightField.offsetY(index));
+            }
+            dirtyCells.set(index / side / cellSize * cellsPerSide + index % side / cellSize);
+        }
+        final boolean rangeChanged = newMinY != minY || newMaxY != maxY;
+        if (rangeChanged) {
+            minY = newMinY;
+            maxY = newMaxY;
+            for (int cell = 0; cell < displays.length; cell++) {
+                if (displays[cell] != null && displays[cell].isValid() && !dirtyCells.get(cell)) {
+                    displays[cell].setTransformation(transformation(heightField, cell));
+                }
+            }
+        }
+        for (int cell = dirtyCells.nextSetBit(0); cell >= 0; cell = dirtyCells.nextSetBit(cell + 1)) {
+            updateCell(heightField, cell / cellsPerSide, cell % cellsPerSide, rangeChanged, false);
+        }
+    }
+
+    /**
+     * Делит карту на квадраты так, чтобы сущностей было не больше maxEntities
+     */
+    private void layout(int newSide) {
+        removeAll();
+        side = newSide;
+        cellSize = Math.max(1, (int) Math.ceil(newSide / Math.sqrt(maxEntities)));
+        cellsPerSide = (newSide + cellSize - 1) / cellSize;
+        displays = new BlockDisplay[cellsPerSide * cellsPerSide];
+        cellHeights = new int[displays.length];
+        cellMaterials = new int[displays.length];
+        anchor = null;
+    }
+
+    private void updateCell(HeightField heightField, int cellX, int cellZ, boolean geometryChanged, boolean moved) {
+        // Столбик квадрата — по самой высокой колонке: её верх и виден сверху
+        int height = Integer.MIN_VALUE;
+        int material = -1;
+        final int fromX = cellX * cellSize;
+        final int fromZ = cellZ * cellSize;
+        final int toX = Math.min(fromX + cellSize, side);
+        final int toZ = Math.min(fromZ + cellSize, side);
+        for (int x = fromX; x < toX; x++) {
+            for (int z = fromZ; z < toZ; z++) {
+                final int index = x * side + z;
+                if (heightField.isPresent(index) && heightField.height(index) > height) {
+                    height = heightField.height(index);
+                    material = heightField.material(index).ordinal();
+                }
+            }
+        }
+
+        final int cell = cellX * cellsPerSide + cellZ;
+        BlockDisplay display = displays[cell];
+        if (material < 0) {
+            if (display != null) {
+                display.remove();
+                displays[cell] = null;
+            }
+            return;
+        }
+        final boolean alive = display != null && display.isValid();
+        if (alive && !geometryChanged && cellHeights[cell] == height && cellMaterials[cell] == material) {
+            return;
+        }
+
+        cellHeights[cell] = height;
+        final Transformation transformation = transformation(heightField, cell);
+        final BlockData block = blockData(material);
+        if (!alive) {
+            display = anchor.getWorld().spawn(anchor, BlockDisplay.class, spawned -> {
+                spawned.setPersistent(false);
+                spawned.setVisibleByDefault(false);
+                spawned.setBlock(block);
+                spawned.setTransformation(transformation);
+            });
+            displays[cell] = display;
+            for (UUID viewerId : viewers) {
+                final Player viewer = Bukkit.getPlayer(viewerId);
+                if (viewer != null) {
+                    viewer.showEntity(plugin, display);
+                }
+            }
+        } else {
+            if (moved) {
+                display.teleport(anchor);
+            }
+            if (cellMaterials[cell] != material) {
+                display.setBlock(block);
+            }
+            display.setTransformation(transformation);
+        }
+        cellMaterials[cell] = material;
+    }
+
+    /**
+     * Положение и размер столбика квадрата относительно угла голограммы по его сохранённой высоте,
+     * высота нормализована по диапазону карты
+     */
+    private Transformation transformation(HeightField heightField, int cell) {
+        final int fromX = cell / cellsPerSide * cellSize;
+        final int fromZ = cell % cellsPerSide * cellSize;
+        final int sizeX = Math.min(fromX + cellSize, side) - fromX;
+        final int sizeZ = Math.min(fromZ + cellSize, side) - fromZ;
+        final float scaleX = (float) (DisplayBuffer.DISPLAY_WIDTH / side);
+        final float scaleZ = (float) (DisplayBuffer.DISPLAY_DEPTH / side);
+        final int rangeY = maxY - minY;
+        final double normalizedY = rangeY == 0 ? 0.5 : (cellHeights[cell] - heightField.centerY() - minY) / (double) rangeY;
+        final float columnHeight = Math.max(MIN_COLUMN_HEIGHT, (float) (normalizedY * DisplayBuffer.DISPLAY_HEIGHT));
+        return new Transformation(
+                new Vector3f(fromX * scaleX, 0, fromZ * scaleZ),
+                new AxisAngle4f(),
+                new Vector3f(sizeX * scaleX, columnHeight, sizeZ * scaleZ),
+                new AxisAngle4f());
+    }
+
+    /**
+     * Блок для столбика: сам материал, если у него полная модель, иначе бетон ближайшего цвета
+     */
+    private BlockData blockData(int ordinal) {
+        BlockData data = blockData[ordinal];
+        if (data == null) {
+            final Material material = MATERIALS[ordinal];
+            data = (material.isSolid() ? material : nearestSubstitute(palette.rgb(material))).createBlockData();
+            blockData[ordinal] = data;
+        }
+        return data;
+    }
+
+    private Material nearestSubstitute(int rgb) {
+        Material nearest = SUBSTITUTES[0];
+        int nearestDistance = Integer.MAX_VALUE;
+        for (Material substitute : SUBSTITUTES) {
+            final int other = palette.rgb(substitute);
+            final int dr = ((rgb >> 16) & 0xFF) - ((other >> 16) & 0xFF);
+            final int dg = ((rgb >> 8) & 0xFF) - ((other >> 8) & 0xFF);
+            final int db = (rgb & 0xFF) - (other & 0xFF);
+            final int distance = dr * dr + dg * dg + db * db;
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearest = substitute;
+            }
+        }
+        return nearest;
+    }
+
+    @Override
+    public void updateViewers(HologramSession session) {
+        final Set<UUID> current = new HashSet<>();
+        for (Player receiver : session.receivers) {
+            current.add(receiver.getUniqueId());
+            if (viewers.add(receiver.getUniqueId())) {
+                setVisible(receiver, true);
+            }
+        }
+        for (Iterator<UUID> iterator = viewers.iterator(); iterator.hasNext(); ) {
+            final UUID viewerId = iterator.next();
+            if (!current.contains(viewerId)) {
+                iterator.remove();
+                final Player viewer = Bukkit.getPlayer(viewerId);
+                if (viewer != null) {
+                    setVisible(viewer, false);
+                }
+            }
+        }
+    }
+
+    private void setVisible(Player viewer, boolean visible) {
+        for (BlockDisplay display : displays) {
+            if (display == null) {
+                continue;
+            }
+            if (visible) {
+                viewer.showEntity(plugin, display);
+            } else {
+                viewer.hideEntity(plugin, display);
+            }
+        }
+    }
+
+    private void removeAll() {
+        for (BlockDisplay display : displays) {
+            if (display != null) {
+                display.remove();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        removeAll();
+        displays = new BlockDisplay[0];
+        viewers.clear();
+        side = 0;
+        anchor = null;
+    }
+}
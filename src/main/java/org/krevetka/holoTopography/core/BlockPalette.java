@@ -0,0 +1,230 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Цвета блоков, собранные в плоский массив по Material.ordinal().
+ * Базовый цвет каждого блока берётся из его цвета на карте, поверх
+ * накладываются встроенные цвета и переопределения из секции colors в config.yml.
+ */
+final class BlockPalette {
+    private static final int DEFAULT_RGB = 0x969696; // Серый для блоков без цвета на карте
+    private static final Material[] MATERIALS = Material.values();
+
+    private final int[] colors;
+
+    BlockPalette(int[] colors) {
+        this.colors = colors;
+    }
+
+    /**
+     * Собирает палитру. Вызывать с главного потока при запуске движка.
+     *
+     * @param overrides секция colors из конфигурации (MATERIAL: "#RRGGBB") или null
+     */
+    static BlockPalette load(ConfigurationSection overrides, Logger logger) {
+        final int[] colors = new int[MATERIALS.length];
+        for (Material material : MATERIALS) {
+            colors[material.ordinal()] = mapColor(material);
+        }
+        builtInColors(colors);
+
+        if (overrides != null) {
+            for (String key : overrides.getKeys(false)) {
+                final Material material = Material.matchMaterial(key);
+                final Integer rgb = parseColor(overrides.getString(key));
+                if (material == null || rgb == null) {
+                    logger.warning("Некорректный цвет в config.yml: colors." + key);
+                    continue;
+                }
+                colors[material.ordinal()] = rgb;
+            }
+        }
+        return new BlockPalette(colors);
+    }
+
+    /**
+     * Цвет материала в виде 0xRRGGBB
+     */
+    int rgb(Material material) {
+        return colors[material.ordinal()];
+    }
+
+    /**
+     * Палитры равны, если совпадают все цвета: по этому движок решает, перестраивать ли карты после перезагрузки
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof BlockPalette palette && Arrays.equals(colors, palette.colors);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(colors);
+    }
+
+    private static int mapColor(Material material) {
+        if (!material.isBlock() || material.isLegacy() || material.isAir()) {
+            return DEFAULT_RGB;
+        }
+        try {
+            final int rgb = material.createBlockData().getMapColor().asRGB();
+            // Прозрачный цвет карты (растения без цвета, стекло и т.п.) отдаёт чёрный
+            return rgb == 0 ? DEFAULT_RGB : rgb;
+        } catch (RuntimeException e) {
+            return DEFAULT_RGB;
+        }
+    }
+
+    /**
+     * Разбирает "#RRGGBB", "RRGGBB" или "r, g, b"
+     */
+    private static Integer parseColor(String value) {
+        if (value == null) {
+            return null;
+        }
+        value = value.trim();
+        try {
+            if (value.contains(",")) {
+                final String[] parts = value.split(",");
+                if (parts.length != 3) {
+                    return null;
+                }
+                int rgb = 0;
+                for (String part : parts) {
+                    final int channel = Integer.parseInt(part.trim());
+                    if (channel < 0 || channel > 255) {
+                        return null;
+                    }
+                    rgb = (rgb << 8) | channel;
+                }
+                return rgb;
+            }
+            if (value.startsWith("#")) {
+                value = value.substring(1);
+            }
+            return value.length() == 6 ? Integer.parseInt(value, 16) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void builtIn(int[] colors, Material material, int red, int green, int blue) {
+        colors[material.ordinal()] = (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Подобранные вручную цвета, которые выглядят на голограмме лучше цветов карты
+     */
+    private static void builtInColors(int[] colors) {
+
+
+        // Основные природные блоки
+        builtIn(colors, Material.GRASS_BLOCK, 102, 153, 51);
+        builtIn(colors, Material.DIRT, 139, 69, 19);
+        builtIn(colors, Material.STONE, 128, 128, 128);
+        builtIn(colors, Material.COBBLESTONE, 112, 112, 112);
+        builtIn(colors, Material.SAND, 255, 255, 153);
+        builtIn(colors, Material.GRAVEL, 169, 169, 169);
+        builtIn(colors, Material.CLAY, 159, 121, 93);
+        builtIn(colors, Material.WATER, 64, 64, 255);
+        builtIn(colors, Material.SANDSTONE, 210, 180, 140);
+        builtIn(colors, Material.RED_SAND, 255, 153, 51);
+        builtIn(colors, Material.RED_SANDSTONE, 205, 92, 92);
+        builtIn(colors, Material.SNOW, 255, 255, 255);
+        builtIn(colors, Material.ICE, 173, 216, 230);
+        builtIn(colors, Material.PACKED_ICE, 160, 224, 224);
+        builtIn(colors, Material.BLUE_ICE, 96, 160, 192);
+        builtIn(colors, Material.MUD, 79, 50, 35);
+        builtIn(colors, Material.MUDDY_MANGROVE_ROOTS, 91, 59, 41);
+
+        // Растительность
+        builtIn(colors, Material.TALL_GRASS, 102, 153, 51);
+        builtIn(colors, Material.FERN, 102, 153, 51);
+        builtIn(colors, Material.LARGE_FERN, 102, 153, 51);
+        builtIn(colors, Material.POPPY, 255, 0, 0);
+        builtIn(colors, Material.DANDELION, 255, 255, 0);
+        builtIn(colors, Material.BLUE_ORCHID, 64, 64, 255);
+        builtIn(colors, Material.ALLIUM, 139, 0, 139);
+        builtIn(colors, Material.AZURE_BLUET, 240, 248, 255);
+        builtIn(colors, Material.RED_TULIP, 255, 0, 0);
+        builtIn(colors, Material.ORANGE_TULIP, 255, 165, 0);
+        builtIn(colors, Material.PINK_TULIP, 255, 182, 193);
+        builtIn(colors, Material.WHITE_TULIP, 255, 255, 255);
+        builtIn(colors, Material.OXEYE_DAISY, 255, 255, 255);
+        builtIn(colors, Material.CORNFLOWER, 100, 149, 237);
+        builtIn(colors, Material.LILY_OF_THE_VALLEY, 255, 255, 255);
+        builtIn(colors, Material.WITHER_ROSE, 0, 0, 0);
+        builtIn(colors, Material.SUNFLOWER, 255, 255, 0);
+        builtIn(colors, Material.LILAC, 171, 130, 255);
+        builtIn(colors, Material.ROSE_BUSH, 255, 0, 0);
+        builtIn(colors, Material.PEONY, 255, 182, 193);
+        builtIn(colors, Material.DANDELION, 255, 255, 0);
+        builtIn(colors, Material.LILY_PAD, 34, 139, 34);
+        builtIn(colors, Material.SUGAR_CANE, 224, 224, 224);
+        builtIn(colors, Material.KELP, 34, 139, 34);
+        builtIn(colors, Material.SEAGRASS, 34, 139, 34);
+        builtIn(colors, Material.SEA_PICKLE, 0, 255, 0);
+        builtIn(colors, Material.BAMBOO, 245, 245, 220);
+        builtIn(colors, Material.MOSS_BLOCK, 0, 128, 0);
+        builtIn(colors, Material.MOSS_CARPET, 0, 128, 0);
+        builtIn(colors, Material.VINE, 0, 100, 0);
+        builtIn(colors, Material.TWISTING_VINES, 148, 0, 211);
+        builtIn(colors, Material.CAVE_VINES, 173, 255, 47);
+        builtIn(colors, Material.SWEET_BERRY_BUSH, 139, 69, 19); // Цвет куста
+
+        // Деревья
+        builtIn(colors, Material.OAK_LOG, 139, 69, 19);
+        builtIn(colors, Material.SPRUCE_LOG, 110, 55, 15);
+        builtIn(colors, Material.BIRCH_LOG, 210, 180, 140);
+        builtIn(colors, Material.JUNGLE_LOG, 145, 105, 60);
+        builtIn(colors, Material.ACACIA_LOG, 179, 99, 44);
+        builtIn(colors, Material.DARK_OAK_LOG, 89, 48, 23);
+        builtIn(colors, Material.MANGROVE_LOG, 91, 59, 41);
+        builtIn(colors, Material.CHERRY_LOG, 160, 82, 45); // Примерно как дуб
+        builtIn(colors, Material.OAK_LEAVES, 0, 128, 0);
+        builtIn(colors, Material.SPRUCE_LEAVES, 0, 100, 0);
+        builtIn(colors, Material.BIRCH_LEAVES, 154, 205, 50);
+        builtIn(colors, Material.JUNGLE_LEAVES, 0, 139, 0);
+        builtIn(colors, Material.ACACIA_LEAVES, 143, 188, 143);
+        builtIn(colors, Material.DARK_OAK_LEAVES, 85, 107, 47);
+        builtIn(colors, Material.MANGROVE_LEAVES, 0, 128, 0); // Примерно как дуб
+        builtIn(colors, Material.CHERRY_LEAVES, 255, 182, 193); // Розоватый
+
+        // Руды (могут быть видны на поверхности)
+        builtIn(colors, Material.COAL_ORE, 0, 0, 0);
+        builtIn(colors, Material.IRON_ORE, 189, 183, 107);
+        builtIn(colors, Material.GOLD_ORE, 255, 215, 0);
+        builtIn(colors, Material.REDSTONE_ORE, 255, 0, 0);
+        builtIn(colors, Material.LAPIS_ORE, 25, 25, 112);
+        builtIn(colors, Material.DIAMOND_ORE, 0, 139, 139);
+        builtIn(colors, Material.EMERALD_ORE, 0, 255, 0);
+        builtIn(colors, Material.COPPER_ORE, 205, 127, 50);
+
+        // Грибы (на поверхности в определенных биомах)
+        builtIn(colors, Material.BROWN_MUSHROOM, 139, 69, 19);
+        builtIn(colors, Material.RED_MUSHROOM, 255, 0, 0);
+        builtIn(colors, Material.MUSHROOM_STEM, 245, 245, 245);
+
+        // Блоки, созданные игроками, которые могут быть на поверхности
+        builtIn(colors, Material.OAK_PLANKS, 160, 82, 45);
+        builtIn(colors, Material.SPRUCE_PLANKS, 139, 69, 19);
+        builtIn(colors, Material.BIRCH_PLANKS, 245, 245, 220);
+        builtIn(colors, Material.JUNGLE_PLANKS, 244, 164, 96);
+        builtIn(colors, Material.ACACIA_PLANKS, 255, 140, 0);
+        builtIn(colors, Material.DARK_OAK_PLANKS, 72, 61, 139);
+        builtIn(colors, Material.MANGROVE_PLANKS, 91, 59, 41);
+        builtIn(colors, Material.CHERRY_PLANKS, 160, 82, 45); // Примерно как дуб
+
+        builtIn(colors, Material.STONE_BRICKS, 112, 112, 112);
+        builtIn(colors, Material.BRICKS, 178, 34, 34);
+
+        // Некоторые структуры, генерируемые на поверхности
+        builtIn(colors, Material.COBWEB, 255, 255, 255); // Белый
+        builtIn(colors, Material.BEE_NEST, 255, 215, 0); // Золотистый
+    }
+}
@@ -0,0 +1,226 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Отслеживает изменения блоков и помечает затронутые колонки (x, z)
+ * как "грязные" для каждой области, по которой построена карта.
+ * Заодно сбрасывает изменившиеся чанки в общем кэше колонок и в хранилище тайлов.
+ * <p>
+ * События только копят изменившиеся колонки; раз в тик движок вызывает {@link #flush},
+ * и каждый чанк сбрасывается в кэше и на диске один раз, сколько бы событий в нём ни было.
+ */
+final class ChangeTracker implements Listener {
+    private final Map<UUID, TrackedArea> areas = new ConcurrentHashMap<>();
+    private final ColumnCache columnCache;
+    private final TileStore tileStore;
+    // Колонки, изменившиеся с прошлого flush (главный поток)
+    private final Map<World, Set<Long>> pendingColumns = new HashMap<>();
+    private final Set<Long> flushedChunks = new HashSet<>();
+
+    /**
+     * @param tileStore хранилище тайлов или null, если оно отключено
+     */
+    ChangeTracker(ColumnCache columnCache, TileStore tileStore) {
+        this.columnCache = columnCache;
+        this.tileStore = tileStore;
+    }
+
+    /**
+     * Начинает отслеживать область карты игрока
+     */
+    void track(UUID playerId, Location center, double renderDistance) {
+        areas.put(playerId, new TrackedArea(center.getWorld().getUID(), center.getBlockX(), center.getBlockZ(), renderDistance));
+    }
+
+    /**
+     * Переносит центр отслеживаемой области, сохраняя накопленные изменения
+     */
+    void move(UUID playerId, Location center) {
+        TrackedArea area = areas.get(playerId);
+        if (area != null) {
+            area.centerX = center.getBlockX();
+            area.centerZ = center.getBlockZ();
+        }
+    }
+
+    void untrack(UUID playerId) {
+        areas.remove(playerId);
+    }
+
+    /**
+     * Забирает накопленные грязные колонки (мировые координаты, упакованные через {@link #columnKey})
+     */
+    Set<Long> drain(UUID playerId) {
+        TrackedArea area = areas.get(playerId);
+        if (area == null || area.dirty.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<Long> drained = new HashSet<>();
+        for (Long key : area.dirty) {
+            if (area.dirty.remove(key)) {
+                drained.add(key);
+            }
+        }
+        return drained;
+    }
+
+    static long columnKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    static int columnX(long key) {
+        return (int) (key >> 32);
+    }
+
+    static int columnZ(long key) {
+        return (int) key;
+    }
+
+    private void markDirty(Block block) {
+        pendingColumns.computeIfAbsent(block.getWorld(), world -> new HashSet<>())
+                .add(columnKey(block.getX(), block.getZ()));
+    }
+
+    /**
+     * Применяет накопленные за тик изменения: сбрасывает затронутые чанки в кэше и на диске
+     * (по одному разу на чанк) и помечает колонки грязными в областях карт. Главный поток, начало тика движка.
+     */
+    void flush() {
+        if (pendingColumns.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<World, Set<Long>> entry : pendingColumns.entrySet()) {
+            final World world = entry.getKey();
+            final UUID worldId = world.getUID();
+            flushedChunks.clear();
+            for (long key : entry.getValue()) {
+                final int x = columnX(key);
+                final int z = columnZ(key);
+                if (flushedChunks.add(ColumnCache.chunkKey(x >> 4, z >> 4))) {
+                    columnCache.invalidate(world, x >> 4, z >> 4);
+                    if (tileStore != null) {
+                        tileStore.invalidate(world, x >> 4, z >> 4);
+                    }
+                }
+                for (TrackedArea area : areas.values()) {
+                    if (area.contains(worldId, x, z)) {
+                        area.dirty.add(key);
+                    }
+                }
+            }
+        }
+        pendingColumns.clear();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        markDirty(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        markDirty(event.getBlock());
+    }
+
+    /**
+     * Обновления соседей (редстоун, вода, песок, посевы) приходят тысячами за тик и почти всегда
+     * ничего не меняют в блоке. Учитываются только те, где сменился тип блока.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPhysics(BlockPhysicsEvent event) {
+        final Block block = event.getBlock();
+        if (event.getChangedType() != block.getType()) {
+            markDirty(block);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent event) {
+        // Растекание жидкостей
+        markDirty(event.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockForm(BlockFormEvent event) {
+        // Снег, лёд, застывание лавы
+        markDirty(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFade(BlockFadeEvent event) {
+        markDirty(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+        // Падающий песок и гравий, эндермены: раньше ловились только через обновления соседей
+        markDirty(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        for (Block block : event.blockList()) {
+            markDirty(block);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        for (Block block : event.blockList()) {
+            markDirty(block);
+        }
+    }
+
+    /**
+     * Отслеживаемая область: круг радиуса renderDistance вокруг центра карты
+     */
+    private static final class TrackedArea {
+        private final UUID worldId;
+        // Меняются только с главного потока, как и события блоков
+        private int centerX;
+        private int centerZ;
+        private final double radiusSquared;
+        private final int radius;
+        private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+        TrackedArea(UUID worldId, int centerX, int centerZ, double renderDistance) {
+            this.worldId = worldId;
+            this.centerX = centerX;
+            this.centerZ = centerZ;
+            this.radius = (int) renderDistance;
+            this.radiusSquared = renderDistance * renderDistance;
+        }
+
+        boolean contains(UUID worldId, int x, int z) {
+            final int dx = x - centerX;
+            final int dz = z - centerZ;
+            if (dx > radius || dx < -radius || dz > radius || dz < -radius) {
+                return false;
+            }
+            return dx * dx + dz * dz <= radiusSquared && this.worldId.equals(worldId);
+        }
+    }
+}
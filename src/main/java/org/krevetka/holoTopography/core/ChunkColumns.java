@@ -0,0 +1,69 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+
+/**
+ * Высоты и поверхностные материалы всех 256 колонок одного чанка
+ */
+final class ChunkColumns {
+    static final int COLUMNS = 16 * 16;
+    private static final Material[] MATERIALS = Material.values();
+
+    private final int chunkX;
+    private final int chunkZ;
+    private final short[] heights;
+    private final short[] materials;
+
+    ChunkColumns(int chunkX, int chunkZ, short[] heights, short[] materials) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.heights = heights;
+        this.materials = materials;
+    }
+
+    /**
+     * Считывает все колонки из снимка чанка (можно вызывать вне главного потока).
+     * В пустой колонке (пустота, острова Энда) верхний блок ниже мира: она записывается
+     * как AIR на minHeight, без чтения блока за пределами снимка.
+     *
+     * @param minHeight нижняя граница мира снимка (World.getMinHeight)
+     */
+    static ChunkColumns of(ChunkSnapshot snapshot, int minHeight) {
+        final short[] heights = new short[COLUMNS];
+        final short[] materials = new short[COLUMNS];
+        for (int localX = 0; localX < 16; localX++) {
+            for (int localZ = 0; localZ < 16; localZ++) {
+                final int worldY = snapshot.getHighestBlockYAt(localX, localZ);
+                if (worldY < minHeight) {
+                    heights[localX * 16 + localZ] = (short) minHeight;
+                    materials[localX * 16 + localZ] = (short) Material.AIR.ordinal();
+                    continue;
+                }
+                heights[localX * 16 + localZ] = (short) worldY;
+                materials[localX * 16 + localZ] = (short) snapshot.getBlockType(localX, worldY, localZ).ordinal();
+            }
+        }
+        return new ChunkColumns(snapshot.getX(), snapshot.getZ(), heights, materials);
+    }
+
+    int chunkX() {
+        return chunkX;
+    }
+
+    int chunkZ() {
+        return chunkZ;
+    }
+
+    int height(int localX, int localZ) {
+        return heights[localX * 16 + localZ];
+    }
+
+    Material material(int localX, int localZ) {
+        return MATERIALS[materials[localX * 16 + localZ]];
+    }
+
+    int materialOrdinal(int localX, int localZ) {
+        return materials[localX * 16 + localZ];
+    }
+}
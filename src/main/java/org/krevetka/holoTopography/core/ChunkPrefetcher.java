@@ -0,0 +1,87 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.World;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Асинхронная подгрузка чанков, которых не было при сканировании.
+ * Чанки запрашиваются через World.getChunkAtAsync не больше maxInFlight одновременно
+ * на все сессии, поэтому большая карта не останавливает главный поток загрузкой.
+ * Готовые чанки обрабатываются в пуле сканера и попадают в очередь сессии,
+ * откуда движок дорисовывает ими карту.
+ * <p>
+ * Тикеты плагина на чанки не ставятся: после снимка чанк выгружается как обычно.
+ */
+final class ChunkPrefetcher {
+    private final JavaPlugin plugin;
+    private final TerrainScanner scanner;
+    private final int maxInFlight;
+    private final boolean generate;
+
+    private final ArrayDeque<Request> queue = new ArrayDeque<>();
+    private int inFlight;
+
+    /**
+     * @param generate генерировать ли ещё не созданные чанки (иначе они остаются пустыми на карте)
+     */
+    ChunkPrefetcher(JavaPlugin plugin, TerrainScanner scanner, int maxInFlight, boolean generate) {
+        this.plugin = plugin;
+        this.scanner = scanner;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.generate = generate;
+    }
+
+    /**
+     * Ставит чанки в очередь (главный поток). Уже запрошенные для этой сессии пропускаются.
+     *
+     * @param chunks ключи чанков {@link ColumnCache#chunkKey}, ближние к центру первыми
+     */
+    void request(HologramSession session, World world, List<Long> chunks) {
+        for (long key : chunks) {
+            if (session.prefetching.add(key)) {
+                queue.add(new Request(session, world, key));
+            }
+        }
+    }
+
+    /**
+     * Отправляет запросы из очереди, пока есть свободные места (главный поток, каждый тик)
+     */
+    void tick() {
+        while (inFlight < maxInFlight && !queue.isEmpty()) {
+            final Request request = queue.poll();
+            if (request.session().isClosed()) {
+                continue;
+            }
+            inFlight++;
+            final int chunkX = (int) (request.chunkKey() >> 32);
+            final int chunkZ = (int) request.chunkKey();
+            request.world().getChunkAtAsync(chunkX, chunkZ, generate).whenComplete((chunk, error) -> {
+                // Paper завершает загрузку чанка на главном потоке
+                inFlight--;
+                if (error != null) {
+                    plugin.getLogger().warning("Ошибка загрузки чанка " + chunkX + ", " + chunkZ + ": " + error.getMessage());
+                }
+                final HologramSession session = request.session();
+                if (chunk == null || session.isClosed() || !plugin.isEnabled()) {
+                    session.prefetching.remove(request.chunkKey());
+                    return;
+                }
+                scanner.process(request.world(), chunk.getChunkSnapshot(true, false, false))
+                        .thenAccept(session.arrivedChunks::add);
+            });
+        }
+    }
+
+    /**
+     * Число чанков, загружаемых прямо сейчас
+     */
+    int inFlight() {
+        return inFlight;
+    }
+
+    private record Request(HologramSession session, World world, long chunkKey) {}
+}
@@ -0,0 +1,115 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Общий для всех сессий кэш колонок по чанкам, отдельный для каждого мира.
+ * Вытесняет давно не использованные чанки (LRU) и сбрасывает чанки
+ * при выгрузке и при изменении блоков в них.
+ */
+final class ColumnCache implements Listener {
+    private final Map<UUID, WorldCache> worlds = new ConcurrentHashMap<>();
+    private final int maxChunksPerWorld;
+
+    ColumnCache(int maxChunksPerWorld) {
+        this.maxChunksPerWorld = Math.max(1, maxChunksPerWorld);
+    }
+
+    WorldCache forWorld(World world) {
+        return worlds.computeIfAbsent(world.getUID(), id -> new WorldCache(maxChunksPerWorld));
+    }
+
+    void invalidate(World world, int chunkX, int chunkZ) {
+        WorldCache cache = worlds.get(world.getUID());
+        if (cache != null) {
+            cache.invalidate(chunkX, chunkZ);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        invalidate(event.getWorld(), event.getChunk().getX(), event.getChunk().getZ());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        worlds.remove(event.getWorld().getUID());
+    }
+
+    static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Кэш одного мира.
+     * Пока идут сканирования, сброс чанка оставляет метку с номером сброса:
+     * результат сканирования, снятый до сброса, не попадёт в кэш.
+     */
+    static final class WorldCache {
+        private final LinkedHashMap<Long, Entry> entries;
+        private long epoch;
+        private int scansInFlight;
+
+        WorldCache(int maxChunks) {
+            this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                    return size() > maxChunks;
+                }
+            };
+        }
+
+        synchronized ChunkColumns get(int chunkX, int chunkZ) {
+            final Entry entry = entries.get(chunkKey(chunkX, chunkZ));
+            return entry != null ? entry.columns : null;
+        }
+
+        /**
+         * Отмечает начало сканирования и возвращает номер, с которым нужно класть его результаты
+         */
+        synchronized long beginScan() {
+            scansInFlight++;
+            return epoch;
+        }
+
+        synchronized void endScan() {
+            scansInFlight--;
+        }
+
+        /**
+         * Кладёт чанк в кэш, если он не менялся после снимка
+         *
+         * @return false, если снимок устарел
+         */
+        synchronized boolean put(ChunkColumns columns, long scanEpoch) {
+            final long key = chunkKey(columns.chunkX(), columns.chunkZ());
+            final Entry existing = entries.get(key);
+            if (existing != null && existing.columns == null && existing.epoch > scanEpoch) {
+                return false; // Чанк изменился после снимка
+            }
+            entries.put(key, new Entry(columns, scanEpoch));
+            return true;
+        }
+
+        synchronized void invalidate(int chunkX, int chunkZ) {
+            final long key = chunkKey(chunkX, chunkZ);
+            if (scansInFlight > 0) {
+                entries.put(key, new Entry(null, ++epoch));
+            } else {
+                entries.remove(key);
+            }
+        }
+    }
+
+    private record Entry(ChunkColumns columns, long epoch) {}
+}
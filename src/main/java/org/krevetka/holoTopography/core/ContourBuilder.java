@@ -0,0 +1,245 @@
+package org.krevetka.holoTopography.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Строит изолинии по карте высот методом marching squares.
+ * Отрезки соседних ячеек сшиваются в полилинии, вдоль которых точки
+ * расставляются с заданным шагом.
+ * <p>
+ * Рёбра сетки нумеруются так: 2 * index — ребро от колонки index к соседу по X,
+ * 2 * index + 1 — ребро к соседу по Z.
+ */
+final class ContourBuilder {
+    private final HeightField heightField;
+    private final int side;
+    private final double spacing;
+    private final TerrainPoints points;
+
+    // Отрезки текущего уровня: пары рёбер
+    private int[] segmentStart = new int[256];
+    private int[] segmentEnd = new int[256];
+    private int segmentCount;
+
+    private ContourBuilder(HeightField heightField, double spacing) {
+        this.heightField = heightField;
+        this.side = heightField.side();
+        this.spacing = spacing;
+        this.points = new TerrainPoints(heightField.columnCount() / 8);
+    }
+
+    /**
+     * Точки изолиний на высотах, кратных interval
+     *
+     * @param interval шаг изолиний по высоте (в блоках)
+     * @param spacing  расстояние между частицами вдоль изолинии (в блоках)
+     */
+    static TerrainPoints build(HeightField heightField, int interval, double spacing) {
+        final ContourBuilder builder = new ContourBuilder(heightField, Math.max(0.25, spacing));
+        if (heightField.columnCount() == 0) {
+            return builder.points;
+        }
+        interval = Math.max(1, interval);
+        final int minHeight = heightField.minY() + heightField.centerY();
+        final int maxHeight = heightField.maxY() + heightField.centerY();
+        for (int level = Math.floorDiv(minHeight, interval) * interval + interval; level <= maxHeight; level += interval) {
+            builder.traceLevel(level);
+        }
+        return builder.points;
+    }
+
+    private void traceLevel(int level) {
+        // Порог между целыми высотами, чтобы линия шла между колонками разной высоты
+        final double threshold = level - 0.5;
+        segmentCount = 0;
+        for (int x = 0; x < side - 1; x++) {
+            for (int z = 0; z < side - 1; z++) {
+                final int corner0 = x * side + z;       // (x, z)
+                final int corner1 = corner0 + side;     // (x + 1, z)
+                final int corner2 = corner1 + 1;        // (x + 1, z + 1)
+                final int corner3 = corner0 + 1;        // (x, z + 1)
+                if (!heightField.isPresent(corner0) || !heightField.isPresent(corner1)
+                        || !heightField.isPresent(corner2) || !heightField.isPresent(corner3)) {
+                    continue;
+                }
+                final int h0 = heightField.height(corner0);
+                final int h1 = heightField.height(corner1);
+                final int h2 = heightField.height(corner2);
+                final int h3 = heightField.height(corner3);
+                final int cell = (h0 > threshold ? 1 : 0) | (h1 > threshold ? 2 : 0)
+                        | (h2 > threshold ? 4 : 0) | (h3 > threshold ? 8 : 0);
+                if (cell == 0 || cell == 15) {
+                    continue;
+                }
+
+                final int bottom = corner0 * 2;     // corner0 - corner1
+                final int right = corner1 * 2 + 1;  // corner1 - corner2
+                final int top = corner3 * 2;        // corner3 - corner2
+                final int left = corner0 * 2 + 1;   // corner0 - corner3
+                final boolean centerAbove = (h0 + h1 + h2 + h3) / 4.0 > threshold;
+
+                switch (cell) {
+                    case 1, 14 -> addSegment(left, bottom);
+                    case 2, 13 -> addSegment(bottom, right);
+                    case 3, 12 -> addSegment(left, right);
+                    case 4, 11 -> addSegment(right, top);
+                    case 6, 9 -> addSegment(bottom, top);
+                    case 7, 8 -> addSegment(top, left);
+                    case 5 -> {
+                        // Седловая точка: углы 0 и 2 выше порога
+                        if (centerAbove) {
+                            addSegment(bottom, right);
+                            addSegment(top, left);
+                        } else {
+                            addSegment(left, bottom);
+                            addSegment(right, top);
+                        }
+                    }
+                    case 10 -> {
+                        // Седловая точка: углы 1 и 3 выше порога
+                        if (centerAbove) {
+                            addSegment(left, bottom);
+                            addSegment(right, top);
+                        } else {
+                            addSegment(bottom, right);
+                            addSegment(top, left);
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+        if (segmentCount > 0) {
+            traceSegments(threshold);
+        }
+    }
+
+    private void addSegment(int startEdge, int endEdge) {
+        if (segmentCount == segmentStart.length) {
+            segmentStart = Arrays.copyOf(segmentStart, segmentCount * 2);
+            segmentEnd = Arrays.copyOf(segmentEnd, segmentCount * 2);
+        }
+        segmentStart[segmentCount] = startEdge;
+        segmentEnd[segmentCount] = endEdge;
+        segmentCount++;
+    }
+
+    /**
+     * Сшивает отрезки по общим рёбрам и обходит получившиеся полилинии
+     */
+    private void traceSegments(double threshold) {
+        final int[] startNeighbor = new int[segmentCount];
+        final int[] endNeighbor = new int[segmentCount];
+        Arrays.fill(startNeighbor, -1);
+        Arrays.fill(endNeighbor, -1);
+
+        // Каждое ребро делят не больше двух ячеек, поэтому у конца отрезка не больше одного соседа
+        final Map<Integer, Integer> edgeOwners = new HashMap<>(segmentCount * 2);
+        for (int segment = 0; segment < segmentCount; segment++) {
+            link(edgeOwners, segment, segmentStart[segment], startNeighbor, endNeighbor);
+            link(edgeOwners, segment, segmentEnd[segment], startNeighbor, endNeighbor);
+        }
+
+        final boolean[] visited = new boolean[segmentCount];
+        // Сначала незамкнутые линии (обрываются на краю карты), затем замкнутые
+        for (int segment = 0; segment < segmentCount; segment++) {
+            if (!visited[segment] && startNeighbor[segment] < 0) {
+                walk(segment, segmentStart[segment], threshold, startNeighbor, endNeighbor, visited);
+            } else if (!visited[segment] && endNeighbor[segment] < 0) {
+                walk(segment, segmentEnd[segment], threshold, startNeighbor, endNeighbor, visited);
+            }
+        }
+        for (int segment = 0; segment < segmentCount; segment++) {
+            if (!visited[segment]) {
+                walk(segment, segmentStart[segment], threshold, startNeighbor, endNeighbor, visited);
+            }
+        }
+    }
+
+    private void link(Map<Integer, Integer> edgeOwners, int segment, int edge, int[] startNeighbor, int[] endNeighbor) {
+        final Integer other = edgeOwners.put(edge, segment);
+        if (other == null) {
+            return;
+        }
+        if (segmentStart[segment] == edge) {
+            startNeighbor[segment] = other;
+        } else {
+            endNeighbor[segment] = other;
+        }
+        if (segmentStart[other] == edge) {
+            startNeighbor[other] = segment;
+        } else {
+            endNeighbor[other] = segment;
+        }
+    }
+
+    /**
+     * Обходит полилинию, начиная с ребра entryEdge отрезка segment, и расставляет точки с шагом spacing
+     */
+    private void walk(int segment, int entryEdge, double threshold,
+                      int[] startNeighbor, int[] endNeighbor, boolean[] visited) {
+        final double y = threshold - heightField.centerY();
+        double previousX = edgeX(entryEdge, threshold);
+        double previousZ = edgeZ(entryEdge, threshold);
+        points.add(previousX, y, previousZ, edgePalette(entryEdge, threshold));
+        double sinceLastPoint = 0;
+
+        while (segment >= 0 && !visited[segment]) {
+            visited[segment] = true;
+            final boolean forward = segmentStart[segment] == entryEdge;
+            final int exitEdge = forward ? segmentEnd[segment] : segmentStart[segment];
+            final int next = forward ? endNeighbor[segment] : startNeighbor[segment];
+
+            final double nextX = edgeX(exitEdge, threshold);
+            final double nextZ = edgeZ(exitEdge, threshold);
+            final double length = Math.hypot(nextX - previousX, nextZ - previousZ);
+            double position = 0;
+            while (sinceLastPoint + (length - position) >= spacing) {
+                position += spacing - sinceLastPoint;
+                final double t = position / length;
+                points.add(previousX + (nextX - previousX) * t, y, previousZ + (nextZ - previousZ) * t,
+                        edgePalette(exitEdge, threshold));
+                sinceLastPoint = 0;
+            }
+            sinceLastPoint += length - position;
+
+            previousX = nextX;
+            previousZ = nextZ;
+            entryEdge = exitEdge;
+            segment = next;
+        }
+    }
+
+    /**
+     * Доля ребра от его первой колонки до точки пересечения с порогом
+     */
+    private double edgeFraction(int edge, double threshold) {
+        final int from = edge >> 1;
+        final int to = (edge & 1) == 0 ? from + side : from + 1;
+        final int fromHeight = heightField.height(from);
+        final int toHeight = heightField.height(to);
+        return (threshold - fromHeight) / (toHeight - fromHeight);
+    }
+
+    private double edgeX(int edge, double threshold) {
+        final int from = edge >> 1;
+        return heightField.offsetX(from) + ((edge & 1) == 0 ? edgeFraction(edge, threshold) : 0);
+    }
+
+    private double edgeZ(int edge, double threshold) {
+        final int from = edge >> 1;
+        return heightField.offsetZ(from) + ((edge & 1) == 1 ? edgeFraction(edge, threshold) : 0);
+    }
+
+    /**
+     * Материал ближайшей к точке пересечения колонки
+     */
+    private short edgePalette(int edge, double threshold) {
+        final int from = edge >> 1;
+        final int to = (edge & 1) == 0 ? from + side : from + 1;
+        return heightField.paletteIndex(edgeFraction(edge, threshold) < 0.5 ? from : to);
+    }
+}
@@ -0,0 +1,336 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Color;
+import org.bukkit.Location;
+import org.bukkit.Particle;
+
+import java.util.Arrays;
+
+/**
+ * Подготовленные к отображению точки карты.
+ * Координаты частиц уже переведены в пространство голограммы, а DustOptions
+ * созданы по одному на каждый материал палитры, поэтому цикл отображения
+ * только читает примитивные массивы.
+ * <p>
+ * Точки разложены на полосы (stripes): точка i попадает в полосу i % stripes,
+ * и каждая полоса лежит в буфере непрерывно. За тик отправляется одна полоса,
+ * а частицы DUST живут дольше, чем длится полный обход всех полос.
+ * <p>
+ * Буфер карты, следующей за игроком ({@link #following}), хранит по слоту на каждую ячейку
+ * карты высот в мировом масштабе, а перенос в пространство голограммы — общий сдвиг,
+ * который прибавляется при чтении. Поэтому при движении игрока обновляются только
+ * изменившиеся колонки ({@link #updateColumn}) и сдвиг ({@link #moveTo}).
+ * <p>
+ * Для отсечения по взгляду игрока габариты голограммы делятся на CULL_CELLS x CULL_CELLS квадратов.
+ * В обычном буфере точки каждой полосы сгруппированы по квадратам ({@link #runEnd}),
+ * поэтому невидимый квадрат пропускается целым участком.
+ */
+final class DisplayBuffer {
+    static final double DISPLAY_WIDTH = 10;
+    static final double DISPLAY_HEIGHT = 5;
+    static final double DISPLAY_DEPTH = 10;
+    static final int CULL_CELLS = 4;
+    static final int CULL_BUCKETS = CULL_CELLS * CULL_CELLS;
+
+    private static final short ABSENT = -1;
+
+    private final double[] coordinates;
+    private final short[] paletteIndices;
+    private final int pointCount;
+    private final int stripes;
+    private final float particleSize;
+    private final BlockPalette palette;
+    private Particle.DustOptions[] dustOptions;
+    private int presentCount;
+
+    // Начала участков квадратов: участок квадрата b в полосе s начинается с runs[s * CULL_BUCKETS + b].
+    // Последний элемент — pointCount. Только у обычного буфера.
+    private final int[] runs;
+    // Число точек в каждом квадрате сетки отсечения (по всем полосам). Только у обычного буфера.
+    private final int[] bucketPoints;
+    // Угол сетки отсечения и диапазон высот точек (без сдвига offsetY)
+    private double gridX;
+    private double gridZ;
+    private double minPointY = Double.POSITIVE_INFINITY;
+    private double maxPointY = Double.NEGATIVE_INFINITY;
+
+    // Только у буфера следования: слот каждой ячейки карты высот, шаг прореживания и масштаб
+    private final int[] cellSlots;
+    private final int stride;
+    private final double scale;
+    private double offsetX;
+    private double offsetY;
+    private double offsetZ;
+
+    private DisplayBuffer(int pointCount, int stripes, float particleSize, BlockPalette palette,
+                          int[] cellSlots, int stride, double scale) {
+        this.coordinates = new double[pointCount * 3];
+        this.paletteIndices = new short[pointCount];
+        this.pointCount = pointCount;
+        this.stripes = stripes;
+        this.particleSize = particleSize;
+        this.palette = palette;
+        this.dustOptions = new Particle.DustOptions[0];
+        this.cellSlots = cellSlots;
+        this.stride = stride;
+        this.scale = scale;
+        this.runs = cellSlots == null ? new int[stripes * CULL_BUCKETS + 1] : null;
+        this.bucketPoints = cellSlots == null ? new int[CULL_BUCKETS] : null;
+    }
+
+    /**
+     * Строит буфер: нормализует координаты точек по границам карты высот в габариты голограммы
+     */
+    static DisplayBuffer build(TerrainPoints points, HeightField heightField, Location displayLocation, float particleSize,
+                               int stripes, BlockPalette palette) {
+        final int pointCount = points.count();
+        stripes = Math.max(1, Math.min(stripes, Math.max(1, pointCount)));
+        final DisplayBuffer buffer = new DisplayBuffer(pointCount, stripes, particleSize, palette, null, 1, 0);
+
+        final double rangeX = heightField.maxX() - heightField.minX();
+        final double rangeY = heightField.maxY() - heightField.minY();
+        final double rangeZ = heightField.maxZ() - heightField.minZ();
+        final double originX = displayLocation.getX() - DISPLAY_WIDTH / 2;
+        final double originY = displayLocation.getY();
+        final double originZ = displayLocation.getZ() - DISPLAY_DEPTH / 2;
+        buffer.gridX = originX;
+        buffer.gridZ = originZ;
+
+        // Полоса точки — ordinal % stripes, внутри полосы точки идут по квадратам сетки отсечения
+        final int[] runs = buffer.runs;
+        final byte[] buckets = new byte[pointCount];
+        for (int ordinal = 0; ordinal < pointCount; ordinal++) {
+            final double normalizedX = (rangeX == 0) ? 0.5 : (points.x(ordinal) - heightField.minX()) / rangeX;
+            final double normalizedZ = (rangeZ == 0) ? 0.5 : (points.z(ordinal) - heightField.minZ()) / rangeZ;
+            buckets[ordinal] = (byte) (cullCell(normalizedX) * CULL_CELLS + cullCell(normalizedZ));
+            runs[(ordinal % stripes) * CULL_BUCKETS + buckets[ordinal] + 1]++;
+            buffer.bucketPoints[buckets[ordinal]]++;
+        }
+        for (int run = 1; run < runs.length; run++) {
+            runs[run] += runs[run - 1];
+        }
+        final int[] next = Arrays.copyOf(runs, runs.length);
+
+        for (int ordinal = 0; ordinal < pointCount; ordinal++) {
+            final int point = next[(ordinal % stripes) * CULL_BUCKETS + buckets[ordinal]]++;
+            final double normalizedX = (rangeX == 0) ? 0.5 : (points.x(ordinal) - heightField.minX()) / rangeX;
+            final double normalizedY = (rangeY == 0) ? 0.5 : (points.y(ordinal) - heightField.minY()) / rangeY;
+            final double normalizedZ = (rangeZ == 0) ? 0.5 : (points.z(ordinal) - heightField.minZ()) / rangeZ;
+
+            buffer.coordinates[point * 3] = originX + normalizedX * DISPLAY_WIDTH;
+            buffer.coordinates[point * 3 + 1] = originY + normalizedY * DISPLAY_HEIGHT;
+            buffer.coordinates[point * 3 + 2] = originZ + normalizedZ * DISPLAY_DEPTH;
+            buffer.paletteIndices[point] = points.paletteIndex(ordinal);
+        }
+        buffer.minPointY = originY;
+        buffer.maxPointY = originY + DISPLAY_HEIGHT;
+        buffer.presentCount = pointCount;
+        buffer.ensureDustOptions(heightField);
+        return buffer;
+    }
+
+    /**
+     * Строит буфер карты, следующей за игроком: по точке на каждую колонку с мировыми X и Z,
+     * кратными stride (прореживание привязано к миру, поэтому при движении точки не мерцают).
+     * Масштаб по высоте равен горизонтальному: диапазон высот меняется при каждом шаге,
+     * и нормализация по нему требовала бы пересчёта всех точек.
+     */
+    static DisplayBuffer following(HeightField heightField, Location displayLocation, float particleSize,
+                                   int stripes, BlockPalette palette, int stride) {
+        final int pointCount = heightField.size();
+        stripes = Math.max(1, Math.min(stripes, pointCount));
+        final int[] cellSlots = new int[pointCount];
+        final double scale = DISPLAY_WIDTH / Math.max(1, 2 * heightField.radius());
+        final DisplayBuffer buffer = new DisplayBuffer(pointCount, stripes, particleSize, palette, cellSlots,
+                Math.max(1, stride), scale);
+        // Ячейки раскладываются по полосам так же, как точки обычного буфера
+        for (int cell = 0; cell < pointCount; cell++) {
+            cellSlots[cell] = buffer.slot(cell);
+        }
+        Arrays.fill(buffer.paletteIndices, ABSENT);
+        for (int index = 0; index < pointCount; index++) {
+            buffer.updateColumn(heightField, index);
+        }
+        buffer.moveTo(heightField, displayLocation);
+        return buffer;
+    }
+
+    /**
+     * Позиция точки с порядковым номером ordinal: первые pointCount % stripes полос длиннее на одну точку
+     */
+    private int slot(int ordinal) {
+        final int stripe = ordinal % stripes;
+        return stripe * (pointCount / stripes) + Math.min(stripe, pointCount % stripes) + ordinal / stripes;
+    }
+
+    boolean isFollowing() {
+        return cellSlots != null;
+    }
+
+    /**
+     * Обновляет точку колонки с логическим индексом index (только буфер следования)
+     */
+    void updateColumn(HeightField heightField, int index) {
+        final int point = cellSlots[heightField.cell(index)];
+        final boolean wasPresent = paletteIndices[point] != ABSENT;
+        final int worldX = heightField.centerX() + heightField.offsetX(index);
+        final int worldZ = heightField.centerZ() + heightField.offsetZ(index);
+        if (!heightField.isPresent(index) || Math.floorMod(worldX, stride) != 0 || Math.floorMod(worldZ, stride) != 0) {
+            if (wasPresent) {
+                paletteIndices[point] = ABSENT;
+                presentCount--;
+            }
+            return;
+        }
+        coordinates[point * 3] = worldX * scale;
+        coordinates[point * 3 + 1] = heightField.height(index) * scale;
+        // Диапазон высот только расширяется: для отсечения достаточно, чтобы он охватывал все точки
+        minPointY = Math.min(minPointY, coordinates[point * 3 + 1]);
+        maxPointY = Math.max(maxPointY, coordinates[point * 3 + 1]);
+        coordinates[point * 3 + 2] = worldZ * scale;
+        paletteIndices[point] = heightField.paletteIndex(index);
+        if (paletteIndices[point] >= dustOptions.length) {
+            ensureDustOptions(heightField);
+        }
+        if (!wasPresent) {
+            presentCount++;
+        }
+    }
+
+    /**
+     * Переносит карту следования к новому центру карты высот и месту отображения.
+     * Высота центральной колонки оказывается на середине голограммы.
+     */
+    void moveTo(HeightField heightField, Location displayLocation) {
+        final int centerIndex = heightField.indexOf(0, 0);
+        final int referenceY = heightField.isPresent(centerIndex) ? heightField.height(centerIndex) : heightField.centerY();
+        offsetX = displayLocation.getX() - DISPLAY_WIDTH / 2 + (heightField.radius() - heightField.centerX()) * scale;
+        offsetY = displayLocation.getY() + DISPLAY_HEIGHT / 2 - referenceY * scale;
+        offsetZ = displayLocation.getZ() - DISPLAY_DEPTH / 2 + (heightField.radius() - heightField.centerZ()) * scale;
+        gridX = displayLocation.getX() - DISPLAY_WIDTH / 2;
+        gridZ = displayLocation.getZ() - DISPLAY_DEPTH / 2;
+    }
+
+    /**
+     * DustOptions для всех материалов палитры карты высот (палитра карты следования растёт при движении)
+     */
+    private void ensureDustOptions(HeightField heightField) {
+        final int start = dustOptions.length;
+        final int size = heightField.paletteSize();
+        if (size <= start) {
+            return;
+        }
+        dustOptions = Arrays.copyOf(dustOptions, size);
+        for (int paletteIndex = start; paletteIndex < size; paletteIndex++) {
+            dustOptions[paletteIndex] = new Particle.DustOptions(
+                    Color.fromRGB(palette.rgb(heightField.paletteEntry(paletteIndex))), particleSize);
+        }
+    }
+
+    /**
+     * Число слотов буфера (в буфере следования часть из них пуста)
+     */
+    int pointCount() {
+        return pointCount;
+    }
+
+    /**
+     * Сколько точек отправлять за тик, чтобы обойти весь буфер за stripes тиков
+     */
+    int pointsPerTick() {
+        return (presentCount + stripes - 1) / stripes;
+    }
+
+    /**
+     * Число полос: за полный обход буфера отправляется stripes тиков
+     */
+    int stripes() {
+        return stripes;
+    }
+
+    /**
+     * Сколько точек буфера лежит в квадрате сетки отсечения.
+     * Точки буфера следования сдвигаются при каждом шаге игрока, для него это среднее по квадратам.
+     */
+    int bucketPoints(int bucket) {
+        return bucketPoints != null ? bucketPoints[bucket] : (presentCount + CULL_BUCKETS - 1) / CULL_BUCKETS;
+    }
+
+    boolean isPresent(int point) {
+        return paletteIndices[point] != ABSENT;
+    }
+
+    double x(int point) {
+        return coordinates[point * 3] + offsetX;
+    }
+
+    double y(int point) {
+        return coordinates[point * 3 + 1] + offsetY;
+    }
+
+    double z(int point) {
+        return coordinates[point * 3 + 2] + offsetZ;
+    }
+
+    Particle.DustOptions dustOptions(int point) {
+        return dustOptions[paletteIndices[point]];
+    }
+
+    private static int cullCell(double normalized) {
+        return Math.max(0, Math.min(CULL_CELLS - 1, (int) (normalized * CULL_CELLS)));
+    }
+
+    /**
+     * Квадрат сетки отсечения, в котором лежит точка
+     */
+    int bucket(int point) {
+        return cullCell((x(point) - gridX) / DISPLAY_WIDTH) * CULL_CELLS + cullCell((z(point) - gridZ) / DISPLAY_DEPTH);
+    }
+
+    /**
+     * Конец участка точек того же квадрата, в котором лежит point.
+     * В буфере следования точки не сгруппированы, и участок — одна точка.
+     */
+    int runEnd(int point) {
+        if (runs == null) {
+            return point + 1;
+        }
+        // Первое начало участка правее point
+        int low = 0;
+        int high = runs.length - 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (runs[middle] > point) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return runs[low];
+    }
+
+    /**
+     * Центр описанной сферы квадрата сетки отсечения
+     */
+    double bucketX(int bucket) {
+        return gridX + (bucket / CULL_CELLS + 0.5) * (DISPLAY_WIDTH / CULL_CELLS);
+    }
+
+    double bucketY() {
+        return (minPointY + maxPointY) / 2 + offsetY;
+    }
+
+    double bucketZ(int bucket) {
+        return gridZ + (bucket % CULL_CELLS + 0.5) * (DISPLAY_DEPTH / CULL_CELLS);
+    }
+
+    /**
+     * Радиус описанной сферы квадрата (одинаков для всех квадратов)
+     */
+    double bucketRadius() {
+        final double halfWidth = DISPLAY_WIDTH / CULL_CELLS / 2;
+        final double halfDepth = DISPLAY_DEPTH / CULL_CELLS / 2;
+        final double halfHeight = maxPointY > minPointY ? (maxPointY - minPointY) / 2 : 0;
+        return Math.sqrt(halfWidth * halfWidth + halfHeight * halfHeight + halfDepth * halfDepth);
+    }
+}
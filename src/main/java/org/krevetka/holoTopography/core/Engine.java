@@ -2,79 +2,668 @@ package org.krevetka.holoTopography.core;
 
 import org.bukkit.*;
 import org.bukkit.entity.Player;
+import org.bukkit.map.MapView;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.scheduler.BukkitTask;
-import org.bukkit.util.Vector;
 import org.bukkit.Material;
-import org.bukkit.block.Block;
-import org.apache.commons.lang3.tuple.Pair;
-import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.krevetka.holoTopography.HoloTopography;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 
 /**
  * Главный движок рендеринга 3D-карты
  */
 public class Engine {
+    private static final long UPDATE_INTERVAL_TICKS = 20L; // Проверка изменений каждую секунду
+    private static final long REBUILD_INTERVAL_TICKS = 10L; // Отображение карты перестраивается не чаще двух раз в секунду
+    private static final int MAX_RENDER_FAILURES = 20; // Ошибок отображения подряд (секунда), после которых карта останавливается
+    private static final long RENDER_ERROR_REPORT_INTERVAL_TICKS = 1200L; // Об ошибках отображения сообщается не чаще раза в минуту
+
     private final Map<UUID, HologramSession> activeSessions = new ConcurrentHashMap<>();
-    private final int particlesPerChunk;
     private final JavaPlugin plugin;
-
-    public Engine(double defaultRenderDistance, int particlesPerChunk) {
-        this.particlesPerChunk = particlesPerChunk;
+    // Последний собранный снимок настроек (подменяется из команд) и снимок, применённый к сессиям (главный поток)
+    private volatile Settings settings;
+    private Settings activeSettings;
+    // Снимок, по которому созданы кэш, хранилище, подгрузка и пул сканирований
+    private final Settings startupSettings;
+    private final ColumnCache columnCache;
+    private final TileStore tileStore;
+    private final TerrainScanner scanner;
+    private final ChangeTracker changeTracker;
+    private final ChunkPrefetcher chunkPrefetcher;
+    private final ScanScheduler scanScheduler;
+    private final QualityController qualityController;
+    private final Metrics metrics = new Metrics();
+    private long nextStatsDumpTick;
+    private final BukkitTask tickTask;
+    private long currentTick;
+
+    // Переиспользуемые между тиками буферы раздачи лимита частиц
+    private final List<HologramSession> renderSessions = new ArrayList<>();
+    private final List<Player> renderPlayers = new ArrayList<>();
+    private int[] renderDemands = new int[16];
+    private int[] renderMinimums = new int[16];
+    private int[] renderGrants = new int[16];
+    // Зритель общей карты -> владелец карты (главный поток)
+    private final Map<UUID, UUID> sharedMemberships = new HashMap<>();
+    // Чанки, которых не оказалось при сдвиге карты следования
+    private final Set<Long> followMissing = new LinkedHashSet<>();
+    // MapView закрытых карт-предметов: номера карт сохраняются в мире, поэтому используются повторно
+    private final Deque<MapView> idleMapViews = new ArrayDeque<>();
+    // Метка предметов карт в PersistentDataContainer
+    private final NamespacedKey mapItemKey;
+
+    public Engine(Settings settings) {
         this.plugin = JavaPlugin.getPlugin(HoloTopography.class);
-        initializeBlockColors();
+        this.mapItemKey = new NamespacedKey(plugin, "topography_map");
+        this.settings = settings;
+        this.activeSettings = settings;
+        this.startupSettings = settings;
+        this.columnCache = new ColumnCache(settings.columnCacheChunks());
+        this.tileStore = settings.tileStore()
+                ? new TileStore(plugin.getDataFolder().toPath().resolve("tiles"), settings.tileMaxAge(),
+                        settings.tileOpenRegions(), plugin.getLogger())
+                : null;
+        this.scanner = new TerrainScanner(columnCache, tileStore);
+        this.changeTracker = new ChangeTracker(columnCache, tileStore);
+        this.chunkPrefetcher = settings.prefetchChunks()
+                ? new ChunkPrefetcher(plugin, scanner, settings.prefetchConcurrency(), settings.prefetchGenerate())
+                : null;
+        this.scanScheduler = new ScanScheduler(settings.maxConcurrentScans(), this::runScan);
+        this.nextStatsDumpTick = settings.statsDumpIntervalTicks();
+        this.qualityController = new QualityController(settings.adaptiveQuality(), Bukkit::getAverageTickTime,
+                settings.msptHigh(), settings.msptLow(), settings.engineTickBudget(), settings.minQuality(),
+                settings.debug() ? plugin.getLogger() : null);
+        Bukkit.getPluginManager().registerEvents(columnCache, plugin);
+        Bukkit.getPluginManager().registerEvents(changeTracker, plugin);
+        Bukkit.getPluginManager().registerEvents(new SessionListener(this), plugin);
+        // Единственный таймер движка: обслуживает все сессии
+        this.tickTask = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+    }
+
+    /**
+     * Число полос чередования: карта целиком обходится за updateInterval тиков,
+     * но не дольше, чем живёт самая короткоживущая частица DUST (около 8 * размер тиков)
+     */
+    static int computeRenderStripes(int updateInterval, double particleSize) {
+        final int minParticleLifetime = Math.max(1, (int) (8 * particleSize));
+        return Math.max(1, Math.min(updateInterval, minParticleLifetime));
+    }
+
+    /**
+     * Общий тик движка: обновление и отображение всех активных сессий
+     */
+    private void tick() {
+        final long tickStart = System.nanoTime();
+        currentTick++;
+        final Settings settings = this.settings;
+        if (settings != activeSettings) {
+            swapSettings(settings);
+        }
+        // Изменения блоков за прошлый тик: до сканирований, чтобы они не взяли сброшенные чанки из кэша
+        changeTracker.flush();
+        if (chunkPrefetcher != null) {
+            chunkPrefetcher.tick();
+        }
+        scanScheduler.tick();
+        advanceProgressiveScans();
+        renderSessions.clear();
+        renderPlayers.clear();
+        for (HologramSession session : activeSessions.values()) {
+            final Player player = Bukkit.getPlayer(session.playerId());
+            if (player == null || !player.isOnline()) {
+                stopSession(session.playerId());
+                continue;
+            }
+            // Буфер, построенный в пуле, подменяется до сдвига карты следования и отправки
+            session.renderer().publish();
+            if (session.isFollowing()) {
+                followPlayer(session, player);
+            }
+            if (currentTick >= session.nextUpdateTick) {
+                updateSession(session, player);
+            }
+            if (session.rebuildPending && currentTick >= session.nextRebuildTick) {
+                rebuildDisplay(session);
+            }
+            // Рендереры без частиц (сущности) в тике не участвуют
+            if (session.renderer().particleDemand() > 0 && collectReceivers(session, player)) {
+                renderSessions.add(session);
+                renderPlayers.add(player);
+            }
+        }
+
+        final int count = renderSessions.size();
+        if (renderDemands.length < count) {
+            renderDemands = new int[count * 2];
+            renderMinimums = new int[count * 2];
+            renderGrants = new int[count * 2];
+        }
+        for (int i = 0; i < count; i++) {
+            // При нагрузке каждая карта отправляет меньше пакетов за тик: полный обход растягивается на больше тиков
+            final HologramSession session = renderSessions.get(i);
+            final int demand = session.renderer().packetDemand(session);
+            // Точка уходит всем видящим её сразу: меньше пакетов, чем получателей, не хватит ни на одну точку
+            renderMinimums[i] = Math.min(demand, session.receivers.size());
+            renderDemands[i] = Math.max(qualityController.scale(demand), renderMinimums[i]);
+        }
+        ParticleBudget.allocate(settings.particleBudget(), renderDemands, renderMinimums, renderGrants, count,
+                count == 0 ? 0 : (int) (currentTick % count));
+        long packets = 0;
+        for (int i = 0; i < count; i++) {
+            packets += renderSession(renderPlayers.get(i), renderSessions.get(i), renderGrants[i]);
+        }
+        metrics.recordParticles(packets, count);
+        final long tickNanos = System.nanoTime() - tickStart;
+        qualityController.recordTick(tickNanos);
+        metrics.recordTick(tickNanos);
+        if (currentTick >= nextStatsDumpTick && !settings.statsDump().equals("none")) {
+            nextStatsDumpTick = currentTick + settings.statsDumpIntervalTicks();
+            dumpStats(settings.statsDump().equals("json"));
+        }
+    }
+
+    /**
+     * Подменяет снимок настроек, с которым работают движок и сессии (главный поток, начало тика).
+     * Отображение каждой карты перестраивается один раз и только если изменилось то, что на ней видно.
+     */
+    private void swapSettings(Settings next) {
+        final boolean displayChanged = activeSettings.changesDisplay(next);
+        activeSettings = next;
+        qualityController.configure(next.adaptiveQuality(), next.msptHigh(), next.msptLow(), next.engineTickBudget(),
+                next.minQuality(), next.debug() ? plugin.getLogger() : null);
+        nextStatsDumpTick = Math.min(nextStatsDumpTick, currentTick + next.statsDumpIntervalTicks());
+        if (!displayChanged) {
+            return;
+        }
+        for (HologramSession session : activeSessions.values()) {
+            session.renderer().applySettings(next);
+            if (session.heightField() != null) {
+                session.update(session.heightField());
+            }
+        }
+    }
+
+    /**
+     * Текущий снимок настроек (последний собранный, сессии применят его в ближайшем тике)
+     */
+    public Settings settings() {
+        return settings;
+    }
+
+    /**
+     * Подменяет снимок настроек; вызывается при перезагрузке конфигурации и из команд настроек.
+     * Возвращает ключи, изменения которых вступят в силу только после перезапуска плагина.
+     */
+    public List<String> applySettings(Settings settings) {
+        this.settings = settings;
+        return settings.restartRequired(startupSettings);
+    }
+
+    /**
+     * Применяет подгруженные чанки и накопленные изменения блоков
+     * или, раз в fullRescanInterval, полностью пересканирует карту
+     */
+    private void updateSession(HologramSession session, Player player) {
+        session.nextUpdateTick = currentTick + UPDATE_INTERVAL_TICKS;
+        if (session.renderer().particleDemand() == 0) {
+            collectReceivers(session, player);
+            session.renderer().updateViewers(session);
+        }
+        final Set<Long> dirtyColumns = changeTracker.drain(session.playerId());
+        if (session.heightField() == null) {
+            return; // Первое сканирование ещё не завершено
+        }
+        // Пока идёт сканирование, подгруженные чанки ждут: иначе его результат затёр бы их
+        boolean changed = !session.scanInFlight && fillArrivedChunks(session);
+        changed |= session.displayStale;
+        session.displayStale = false;
+        // Изменённые блоки отмечают только свои колонки (rescanColumns), подгруженные чанки — всю карту
+        if (changed) {
+            session.update(session.heightField());
+        }
+        // Полное пересканирование — только страховка от пропущенных событий
+        if (currentTick >= session.nextFullScanTick || !rescanColumns(session, dirtyColumns)) {
+            startScan(session);
+        }
+    }
+
+    /**
+     * Перестраивает отображение сессии (прореживание, изолинии, буфер точек).
+     * Все изменения карты высот между перестройками применяются одной перестройкой,
+     * а время перестройки входит в измеряемое время тика движка.
+     */
+    private void rebuildDisplay(HologramSession session) {
+        // При нагрузке карты перестраиваются реже
+        session.nextRebuildTick = currentTick + (long) (REBUILD_INTERVAL_TICKS / qualityController.quality());
+        session.rebuild();
     }
 
-    public void startStaticMapUpdate(Player player, UUID playerId, Location initialCenter, double renderDistance, Location displayLocation) {
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                if (!player.isOnline() || !hasActiveSession(playerId)) {
-                    cancel();
-                    plugin.getLogger().info("[UPDATE_TIMER] Игрок не в сети или сессия не активна, таймер остановлен.");
+    /**
+     * Ставит сессию в очередь полного сканирования
+     */
+    private void startScan(HologramSession session) {
+        // При нагрузке страховочные пересканирования реже
+        session.nextFullScanTick = currentTick + (long) (activeSettings.fullRescanIntervalTicks() / qualityController.quality());
+        // Карты от progressiveRadius сканируются по частям от грубого к точному; 0 отключает
+        final int progressiveRadius = activeSettings.progressiveRadius();
+        if (progressiveRadius > 0 && session.renderDistance() >= progressiveRadius) {
+            startProgressiveScan(session);
+            return;
+        }
+        scanScheduler.request(session);
+    }
+
+    /**
+     * Большая карта: первое сканирование идёт от грубого к точному, пересканирования — по чанкам,
+     * и то и другое — в пределах бюджета времени тика. Уже идущее сканирование не перезапускается.
+     */
+    private void startProgressiveScan(HologramSession session) {
+        if (session.progressiveScan != null) {
+            return;
+        }
+        final HeightField current = session.heightField();
+        final Location center = session.center();
+        final HeightField heightField = current != null ? current
+                : new HeightField(center.getBlockX(), center.getBlockY(), center.getBlockZ(), (int) session.renderDistance());
+        session.progressiveScan = new ProgressiveScan(session, center.getWorld(), heightField, scanner, chunkPrefetcher,
+                current == null);
+    }
+
+    /**
+     * Продвигает сканирования больших карт, деля бюджет времени тика поровну между ними
+     */
+    private void advanceProgressiveScans() {
+        int count = 0;
+        for (HologramSession session : activeSessions.values()) {
+            if (session.progressiveScan != null) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        final long share = (long) (activeSettings.progressiveBudgetNanos() * qualityController.quality()) / count;
+        for (HologramSession session : activeSessions.values()) {
+            final ProgressiveScan scan = session.progressiveScan;
+            if (scan == null) {
+                continue;
+            }
+            // Законченный проход показывается с ближайшей перестройкой, не дожидаясь обновления сессии
+            if (scan.advance(System.nanoTime() + share)) {
+                session.update(scan.heightField());
+            }
+            if (scan.isDone()) {
+                session.progressiveScan = null;
+                // Число колонок для метрик и порога пересканирования по колонкам — один раз за сканирование
+                scan.heightField().recomputeBounds();
+                metrics.recordChunks(scan.chunksStored(), scan.chunksSnapshotted(), scan.chunksMissing());
+                metrics.recordScan(System.currentTimeMillis() - scan.startedAt(), scan.heightField().columnCount());
+            }
+        }
+    }
+
+    /**
+     * Выполняет полное сканирование: снимки чанков на главном потоке, обработка в пуле сканера.
+     * Вызывается планировщиком сканирований.
+     */
+    private void runScan(HologramSession session) {
+        final long startedAt = System.currentTimeMillis();
+        final CompletableFuture<HeightField> scan;
+        try {
+            final TerrainScanner.Capture capture = scanner.capture(session.center(), session.renderDistance(),
+                    session.heightField() != null);
+            metrics.recordChunks(capture.cached().size(), capture.snapshots().size(), capture.missing().size());
+            if (chunkPrefetcher != null && !capture.missing().isEmpty()) {
+                chunkPrefetcher.request(session, capture.world(), capture.missing());
+            }
+            scan = scanner.scan(capture, session::isClosed);
+        } catch (RuntimeException e) {
+            // Сканирование не началось: место в очереди освобождается сразу, иначе очередь встанет
+            plugin.getLogger().log(Level.WARNING, "Ошибка сканирования рельефа", e);
+            scanScheduler.finished(session);
+            return;
+        }
+        scan.whenComplete((heightField, error) -> {
+            if (error != null) {
+                plugin.getLogger().log(Level.WARNING, "Ошибка сканирования рельефа", error);
+            } else if (heightField != null) {
+                metrics.recordScan(System.currentTimeMillis() - startedAt, heightField.columnCount());
+            }
+            if (!plugin.isEnabled()) {
+                // Выключенному плагину задачи не планируются, а тик движка уже остановлен:
+                // место освобождается прямо здесь
+                scanScheduler.finished(session);
+                return;
+            }
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                scanScheduler.finished(session);
+                // Сессию могли остановить или пересоздать, пока шло сканирование
+                if (heightField == null || session.isClosed() || activeSessions.get(session.playerId()) != session) {
                     return;
                 }
-                plugin.getLogger().info("[UPDATE_TIMER] Запускаем новую InitialScanTask для игрока: " + player.getName());
-                new InitialScanTask(playerId, initialCenter, renderDistance, displayLocation).runTaskAsynchronously(plugin);
+                final boolean firstScan = session.heightField() == null;
+                session.update(heightField);
+                if (firstScan && activeSettings.debug()) {
+                    plugin.getLogger().info("[SCAN] Новая карта отображается для игрока: " + session.playerId());
+                }
+            });
+        });
+    }
+
+    /**
+     * Сдвигает карту следования за игроком: досканируются только открывшиеся колонки,
+     * а буфер точек обновляется по тем же колонкам
+     */
+    private void followPlayer(HologramSession session, Player player) {
+        final HeightField heightField = session.heightField();
+        final Location location = player.getLocation();
+        final World world = location.getWorld();
+        if (heightField == null || world != session.center().getWorld()) {
+            return;
+        }
+        final int centerX = location.getBlockX();
+        final int centerZ = location.getBlockZ();
+        if (centerX == heightField.centerX() && centerZ == heightField.centerZ()) {
+            return;
+        }
+
+        final double radiusSquared = session.renderDistance() * session.renderDistance();
+        final HologramRenderer renderer = session.renderer();
+        final boolean incremental = renderer.followsIncrementally();
+        followMissing.clear();
+        heightField.recenter(centerX, centerZ, radiusSquared, index -> {
+            final int offsetX = heightField.offsetX(index);
+            final int offsetZ = heightField.offsetZ(index);
+            if (offsetX * offsetX + offsetZ * offsetZ <= radiusSquared) {
+                final int x = centerX + offsetX;
+                final int z = centerZ + offsetZ;
+                final ChunkColumns columns = scanner.columnsAt(world, x >> 4, z >> 4);
+                if (columns != null) {
+                    heightField.set(index, columns.height(x & 15, z & 15), columns.material(x & 15, z & 15));
+                } else {
+                    followMissing.add(ColumnCache.chunkKey(x >> 4, z >> 4));
+                }
+            }
+            if (incremental) {
+                renderer.updateColumn(heightField, index);
+            }
+        });
+        if (chunkPrefetcher != null && !followMissing.isEmpty()) {
+            chunkPrefetcher.request(session, world, new ArrayList<>(followMissing));
+        }
+
+        session.moveTo(new Location(world, centerX, location.getBlockY(), centerZ),
+                location.clone().add(session.displayOffset()));
+        changeTracker.move(session.playerId(), session.center());
+        if (incremental) {
+            renderer.moveTo(heightField, session.displayLocation());
+        } else {
+            session.displayStale = true;
+        }
+    }
+
+    /**
+     * Наносит на карту чанки, подгруженные после сканирования.
+     * Возвращает true, если карта изменилась.
+     */
+    private boolean fillArrivedChunks(HologramSession session) {
+        final HeightField heightField = session.heightField();
+        final double radiusSquared = session.renderDistance() * session.renderDistance();
+        boolean filled = false;
+        ChunkColumns columns;
+        while ((columns = session.arrivedChunks.poll()) != null) {
+            session.prefetching.remove(ColumnCache.chunkKey(columns.chunkX(), columns.chunkZ()));
+            heightField.fill(columns, radiusSquared);
+            filled = true;
+        }
+        return filled;
+    }
+
+    /**
+     * Пересканирует только изменившиеся колонки (главный поток).
+     * Возвращает false, если изменений слишком много и нужно полное сканирование.
+     */
+    private boolean rescanColumns(HologramSession session, Set<Long> dirtyColumns) {
+        if (dirtyColumns.isEmpty()) {
+            return true;
+        }
+        final HeightField heightField = session.heightField();
+        if (dirtyColumns.size() > heightField.columnCount() / 4) {
+            return false;
+        }
+
+        final World world = session.center().getWorld();
+        for (long key : dirtyColumns) {
+            final int x = ChangeTracker.columnX(key);
+            final int z = ChangeTracker.columnZ(key);
+            final int index = heightField.indexOf(x - heightField.centerX(), z - heightField.centerZ());
+            if (index < 0 || !world.isChunkLoaded(x >> 4, z >> 4)) {
+                continue;
+            }
+            final int worldY = world.getHighestBlockYAt(x, z);
+            // Колонку могли вычистить до пустоты: блока ниже мира нет
+            if (worldY < world.getMinHeight()) {
+                heightField.set(index, world.getMinHeight(), Material.AIR);
+            } else {
+                heightField.set(index, worldY, world.getBlockAt(x, worldY, z).getType());
+            }
+            session.columnChanged(index);
+        }
+        return true;
+    }
+
+    private HologramRenderer createRenderer(HologramSession session) {
+        final Settings settings = activeSettings;
+        return switch (session.renderMode()) {
+            case BLOCKS -> new BlockDisplayRenderer(plugin, settings.palette(), settings.maxDisplayEntities());
+            case MAP -> {
+                final World world = session.center().getWorld();
+                yield new MapItemRenderer(settings.palette(),
+                        () -> idleMapViews.isEmpty() ? Bukkit.createMap(world) : idleMapViews.pop(), idleMapViews::push,
+                        mapItemKey);
+            }
+            default -> new ParticleRenderer(this::bufferTask, scanner.executor(), plugin.getLogger(),
+                    settings.particleRenderDistance(), settings.particleViewAngle());
+        };
+    }
+
+    /**
+     * Убирает у игрока предметы карт (вход и выход игрока)
+     */
+    void removeMapItems(Player player) {
+        MapItemRenderer.removeMapItems(player, mapItemKey);
+    }
+
+    /**
+     * Задача построения буфера точек для частиц по карте высот сессии в её режиме.
+     * Всё нужное снимается на главном потоке: обычный буфер строится по копии карты высот
+     * (прореживание, изолинии и границы карты считаются уже в пуле), буфер карты следования — по самой карте.
+     */
+    private Supplier<DisplayBuffer> bufferTask(HologramSession session) {
+        final Settings settings = activeSettings;
+        final float particleSize = (float) settings.particleSize();
+        final Location displayLocation = session.displayLocation().clone();
+        if (session.followsByColumns()) {
+            final HeightField heightField = session.heightField();
+            // Прореживание шагом по миру: не больше particlesPerChunk точек на чанк
+            final int stride = (int) Math.ceil(Math.sqrt(256.0 / settings.particlesPerChunk()));
+            return () -> DisplayBuffer.following(heightField, displayLocation, particleSize, settings.renderStripes(),
+                    settings.palette(), stride);
+        }
+        final HeightField heightField = session.heightField().copy();
+        final RenderMode renderMode = session.renderMode();
+        return () -> {
+            heightField.recomputeBounds();
+            final TerrainPoints points = switch (renderMode) {
+                case CONTOURS -> ContourBuilder.build(heightField, settings.contourInterval(), settings.contourSpacing());
+                default -> LodDecimator.decimate(heightField, LodDecimator.pointBudget(heightField, settings.particlesPerChunk()));
+            };
+            return DisplayBuffer.build(points, heightField, displayLocation, particleSize, settings.renderStripes(),
+                    settings.palette());
+        };
+    }
+
+    /**
+     * Собирает получателей частиц сессии: владельца и, для общей карты, участников и игроков в радиусе.
+     * Возвращает false, если показывать карту некому.
+     */
+    private boolean collectReceivers(HologramSession session, Player owner) {
+        final List<Player> receivers = session.receivers;
+        receivers.clear();
+        final Location displayLocation = session.displayLocation();
+        final World world = displayLocation.getWorld();
+        if (owner.getWorld() == world) {
+            receivers.add(owner);
+        }
+        if (!session.isShared()) {
+            return !receivers.isEmpty();
+        }
+        for (UUID memberId : session.members()) {
+            final Player member = Bukkit.getPlayer(memberId);
+            if (member != null && member.getWorld() == world) {
+                receivers.add(member);
+            }
+        }
+        if (session.viewRadius() > 0) {
+            final double radiusSquared = session.viewRadius() * session.viewRadius();
+            for (Player nearby : world.getPlayers()) {
+                if (nearby != owner && !session.members().contains(nearby.getUniqueId())
+                        && nearby.getLocation().distanceSquared(displayLocation) <= radiusSquared) {
+                    receivers.add(nearby);
+                }
             }
-        }.runTaskTimer(plugin, 0L, 20L); // Обновление каждую секунду (20 тиков)
+        }
+        return !receivers.isEmpty();
+    }
+
+    /**
+     * Отдаёт рендереру сессии packets пакетов на этот тик.
+     * Об ошибке сообщается в лог и игроку не чаще раза в минуту, а карта, которая не отображается
+     * MAX_RENDER_FAILURES тиков подряд, останавливается.
+     */
+    private int renderSession(Player player, HologramSession session, int packets) {
+        try {
+            final int sent = session.renderer().render(session, packets);
+            session.renderFailures = 0;
+            return sent;
+        } catch (RuntimeException e) {
+            if (currentTick >= session.nextRenderErrorReportTick) {
+                session.nextRenderErrorReportTick = currentTick + RENDER_ERROR_REPORT_INTERVAL_TICKS;
+                plugin.getLogger().log(Level.WARNING, "Ошибка отображения карты игрока " + player.getName(), e);
+                player.sendMessage(ChatColor.RED + "Ошибка отображения карты: " + e.getMessage());
+            }
+            if (++session.renderFailures >= MAX_RENDER_FAILURES) {
+                plugin.getLogger().warning("Карта игрока " + player.getName() + " остановлена: ошибки отображения в "
+                        + MAX_RENDER_FAILURES + " тиках подряд");
+                player.sendMessage(ChatColor.RED + "Карта остановлена из-за повторяющихся ошибок отображения.");
+                stopSession(session.playerId());
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Снимок метрик движка с момента запуска (для /holotopo stats)
+     */
+    public Metrics.Snapshot stats() {
+        return metrics.snapshot(activeSessions.size(), scanScheduler.running(), scanScheduler.backlog(),
+                chunkPrefetcher != null ? chunkPrefetcher.inFlight() : 0, qualityController.quality());
+    }
+
+    /**
+     * Дописывает снимок метрик в stats.csv или stats.jsonl в папке плагина (запись — вне главного потока)
+     */
+    private void dumpStats(boolean json) {
+        final long time = System.currentTimeMillis();
+        final Metrics.Snapshot snapshot = stats();
+        final String line = json ? snapshot.toJson(time) : snapshot.toCsv(time);
+        final Path file = plugin.getDataFolder().toPath().resolve(json ? "stats.jsonl" : "stats.csv");
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                final boolean header = !json && !Files.exists(file);
+                Files.createDirectories(file.getParent());
+                Files.writeString(file, (header ? Metrics.Snapshot.CSV_HEADER + "\n" : "") + line + "\n",
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Не удалось записать статистику: " + e.getMessage());
+            }
+        });
     }
 
     /**
      * Инициализация голограммы для игрока
      */
-    public void createSession(Player player, Location center, double renderDistance) {
+    public void createSession(Player player, Location center, double renderDistance, RenderMode renderMode) {
         // Остановить текущую сессию, если она есть
         stopSession(player.getUniqueId());
         // Определяем статичное местоположение для отображения
         Location displayLocation = player.getLocation().add(player.getLocation().getDirection().multiply(5));
+        HologramSession session = new HologramSession(player.getUniqueId(), center, displayLocation, renderDistance, renderMode);
+        session.setRenderer(createRenderer(session));
+        session.nextUpdateTick = currentTick + UPDATE_INTERVAL_TICKS;
+        activeSessions.put(player.getUniqueId(), session);
+        changeTracker.track(player.getUniqueId(), center, renderDistance);
         player.sendMessage(ChatColor.YELLOW + "Запущено первичное сканирование...");
-        new InitialScanTask(player.getUniqueId(), center, renderDistance, displayLocation).runTaskAsynchronously(plugin);
-        // Запускаем циклическое обновление карты с небольшой задержкой
-        Bukkit.getScheduler().runTaskLater(plugin, () -> {
-            startStaticMapUpdate(player, player.getUniqueId(), center, renderDistance, displayLocation);
-        }, 5L); // Задержка в 5 тиков
+        startScan(session);
     }
     
     /**
      * Остановка сессии для игрока
      */
     public boolean stopSession(UUID playerId) {
+        changeTracker.untrack(playerId);
         HologramSession session = activeSessions.remove(playerId);
-        if (session != null && session.task() != null) {
-            session.task().cancel();
+        if (session != null) {
+            scanScheduler.cancel(session);
+            for (UUID memberId : session.members()) {
+                sharedMemberships.remove(memberId, playerId);
+                final Player member = Bukkit.getPlayer(memberId);
+                if (member != null) {
+                    member.sendMessage(ChatColor.YELLOW + "Общая топографическая карта остановлена.");
+                }
+            }
+            session.close();
             return true;
         }
         return false;
     }
 
     /**
-     * Проверяет, есть ли активная сессия у игрока
+     * Переключает режим отображения карты игрока без пересканирования
      */
+    public boolean setRenderMode(UUID playerId, RenderMode renderMode) {
+        HologramSession session = activeSessions.get(playerId);
+        if (session == null) {
+            return false;
+        }
+        session.setRenderMode(renderMode);
+        session.setRenderer(createRenderer(session));
+        return true;
+    }
+
+    /**
+     * Останавливает все сессии, таймер движка и пул сканирования (при выключении плагина)
+     */
+    public void shutdown() {
+        tickTask.cancel();
+        for (UUID playerId : new ArrayList<>(activeSessions.keySet())) {
+            stopSession(playerId);
+        }
+        scanner.shutdown();
+        if (tileStore != null) {
+            tileStore.close();
+        }
+    }
+
     /**
      * Проверяет, есть ли активная сессия у игрока
      */
@@ -94,410 +683,75 @@ public class Engine {
                 session.playerId(),
                 session.center(),
                 session.createdAt(),
-                session.renderDistance() // Возможно, стоит пересмотреть, что возвращать здесь
+                session.renderDistance(), // Возможно, стоит пересмотреть, что возвращать здесь
+                session.renderMode(),
+                session.isFollowing(),
+                session.isShared(),
+                session.members().size()
         );
     }
     
     /**
-     * Информация о голограмме (для команд и API)
+     * Делает карту игрока общей
+     *
+     * @param viewRadius карту видят все игроки в этом радиусе от неё (0 — только участники)
      */
-    public record HologramInfo(UUID playerId, Location center, long createdAt, double renderDistance) {}
-
-    private final Map<Material, Color> blockColors = new HashMap<>();
-
-    private void initializeBlockColors() {
-        // Основные природные блоки
-        blockColors.put(Material.GRASS_BLOCK, Color.fromRGB(102, 153, 51));
-        blockColors.put(Material.DIRT, Color.fromRGB(139, 69, 19));
-        blockColors.put(Material.STONE, Color.fromRGB(128, 128, 128));
-        blockColors.put(Material.COBBLESTONE, Color.fromRGB(112, 112, 112));
-        blockColors.put(Material.SAND, Color.fromRGB(255, 255, 153));
-        blockColors.put(Material.GRAVEL, Color.fromRGB(169, 169, 169));
-        blockColors.put(Material.CLAY, Color.fromRGB(159, 121, 93));
-        blockColors.put(Material.WATER, Color.fromRGB(64, 64, 255));
-        blockColors.put(Material.SANDSTONE, Color.fromRGB(210, 180, 140));
-        blockColors.put(Material.RED_SAND, Color.fromRGB(255, 153, 51));
-        blockColors.put(Material.RED_SANDSTONE, Color.fromRGB(205, 92, 92));
-        blockColors.put(Material.SNOW, Color.fromRGB(255, 255, 255));
-        blockColors.put(Material.ICE, Color.fromRGB(173, 216, 230));
-        blockColors.put(Material.PACKED_ICE, Color.fromRGB(160, 224, 224));
-        blockColors.put(Material.BLUE_ICE, Color.fromRGB(96, 160, 192));
-        blockColors.put(Material.MUD, Color.fromRGB(79, 50, 35));
-        blockColors.put(Material.MUDDY_MANGROVE_ROOTS, Color.fromRGB(91, 59, 41));
-
-        // Растительность
-        blockColors.put(Material.TALL_GRASS, Color.fromRGB(102, 153, 51));
-        blockColors.put(Material.FERN, Color.fromRGB(102, 153, 51));
-        blockColors.put(Material.LARGE_FERN, Color.fromRGB(102, 153, 51));
-        blockColors.put(Material.POPPY, Color.fromRGB(255, 0, 0));
-        blockColors.put(Material.DANDELION, Color.fromRGB(255, 255, 0));
-        blockColors.put(Material.BLUE_ORCHID, Color.fromRGB(64, 64, 255));
-        blockColors.put(Material.ALLIUM, Color.fromRGB(139, 0, 139));
-        blockColors.put(Material.AZURE_BLUET, Color.fromRGB(240, 248, 255));
-        blockColors.put(Material.RED_TULIP, Color.fromRGB(255, 0, 0));
-        blockColors.put(Material.ORANGE_TULIP, Color.fromRGB(255, 165, 0));
-        blockColors.put(Material.PINK_TULIP, Color.fromRGB(255, 182, 193));
-        blockColors.put(Material.WHITE_TULIP, Color.fromRGB(255, 255, 255));
-        blockColors.put(Material.OXEYE_DAISY, Color.fromRGB(255, 255, 255));
-        blockColors.put(Material.CORNFLOWER, Color.fromRGB(100, 149, 237));
-        blockColors.put(Material.LILY_OF_THE_VALLEY, Color.fromRGB(255, 255, 255));
-        blockColors.put(Material.WITHER_ROSE, Color.fromRGB(0, 0, 0));
-        blockColors.put(Material.SUNFLOWER, Color.fromRGB(255, 255, 0));
-        blockColors.put(Material.LILAC, Color.fromRGB(171, 130, 255));
-        blockColors.put(Material.ROSE_BUSH, Color.fromRGB(255, 0, 0));
-        blockColors.put(Material.PEONY, Color.fromRGB(255, 182, 193));
-        blockColors.put(Material.DANDELION, Color.fromRGB(255, 255, 0));
-        blockColors.put(Material.LILY_PAD, Color.fromRGB(34, 139, 34));
-        blockColors.put(Material.SUGAR_CANE, Color.fromRGB(224, 224, 224));
-        blockColors.put(Material.KELP, Color.fromRGB(34, 139, 34));
-        blockColors.put(Material.SEAGRASS, Color.fromRGB(34, 139, 34));
-        blockColors.put(Material.SEA_PICKLE, Color.fromRGB(0, 255, 0));
-        blockColors.put(Material.BAMBOO, Color.fromRGB(245, 245, 220));
-        blockColors.put(Material.MOSS_BLOCK, Color.fromRGB(0, 128, 0));
-        blockColors.put(Material.MOSS_CARPET, Color.fromRGB(0, 128, 0));
-        blockColors.put(Material.VINE, Color.fromRGB(0, 100, 0));
-        blockColors.put(Material.TWISTING_VINES, Color.fromRGB(148, 0, 211));
-        blockColors.put(Material.CAVE_VINES, Color.fromRGB(173, 255, 47));
-        blockColors.put(Material.SWEET_BERRY_BUSH, Color.fromRGB(139, 69, 19)); // Цвет куста
-
-        // Деревья
-        blockColors.put(Material.OAK_LOG, Color.fromRGB(139, 69, 19));
-        blockColors.put(Material.SPRUCE_LOG, Color.fromRGB(110, 55, 15));
-        blockColors.put(Material.BIRCH_LOG, Color.fromRGB(210, 180, 140));
-        blockColors.put(Material.JUNGLE_LOG, Color.fromRGB(145, 105, 60));
-        blockColors.put(Material.ACACIA_LOG, Color.fromRGB(179, 99, 44));
-        blockColors.put(Material.DARK_OAK_LOG, Color.fromRGB(89, 48, 23));
-        blockColors.put(Material.MANGROVE_LOG, Color.fromRGB(91, 59, 41));
-        blockColors.put(Material.CHERRY_LOG, Color.fromRGB(160, 82, 45)); // Примерно как дуб
-        blockColors.put(Material.OAK_LEAVES, Color.fromRGB(0, 128, 0));
-        blockColors.put(Material.SPRUCE_LEAVES, Color.fromRGB(0, 100, 0));
-        blockColors.put(Material.BIRCH_LEAVES, Color.fromRGB(154, 205, 50));
-        blockColors.put(Material.JUNGLE_LEAVES, Color.fromRGB(0, 139, 0));
-        blockColors.put(Material.ACACIA_LEAVES, Color.fromRGB(143, 188, 143));
-        blockColors.put(Material.DARK_OAK_LEAVES, Color.fromRGB(85, 107, 47));
-        blockColors.put(Material.MANGROVE_LEAVES, Color.fromRGB(0, 128, 0)); // Примерно как дуб
-        blockColors.put(Material.CHERRY_LEAVES, Color.fromRGB(255, 182, 193)); // Розоватый
-
-        // Руды (могут быть видны на поверхности)
-        blockColors.put(Material.COAL_ORE, Color.fromRGB(0, 0, 0));
-        blockColors.put(Material.IRON_ORE, Color.fromRGB(189, 183, 107));
-        blockColors.put(Material.GOLD_ORE, Color.fromRGB(255, 215, 0));
-        blockColors.put(Material.REDSTONE_ORE, Color.fromRGB(255, 0, 0));
-        blockColors.put(Material.LAPIS_ORE, Color.fromRGB(25, 25, 112));
-        blockColors.put(Material.DIAMOND_ORE, Color.fromRGB(0, 139, 139));
-        blockColors.put(Material.EMERALD_ORE, Color.fromRGB(0, 255, 0));
-        blockColors.put(Material.COPPER_ORE, Color.fromRGB(205, 127, 50));
-
-        // Грибы (на поверхности в определенных биомах)
-        blockColors.put(Material.BROWN_MUSHROOM, Color.fromRGB(139, 69, 19));
-        blockColors.put(Material.RED_MUSHROOM, Color.fromRGB(255, 0, 0));
-        blockColors.put(Material.MUSHROOM_STEM, Color.fromRGB(245, 245, 245));
-
-        // Блоки, созданные игроками, которые могут быть на поверхности
-        blockColors.put(Material.OAK_PLANKS, Color.fromRGB(160, 82, 45));
-        blockColors.put(Material.SPRUCE_PLANKS, Color.fromRGB(139, 69, 19));
-        blockColors.put(Material.BIRCH_PLANKS, Color.fromRGB(245, 245, 220));
-        blockColors.put(Material.JUNGLE_PLANKS, Color.fromRGB(244, 164, 96));
-        blockColors.put(Material.ACACIA_PLANKS, Color.fromRGB(255, 140, 0));
-        blockColors.put(Material.DARK_OAK_PLANKS, Color.fromRGB(72, 61, 139));
-        blockColors.put(Material.MANGROVE_PLANKS, Color.fromRGB(91, 59, 41));
-        blockColors.put(Material.CHERRY_PLANKS, Color.fromRGB(160, 82, 45)); // Примерно как дуб
-
-        blockColors.put(Material.STONE_BRICKS, Color.fromRGB(112, 112, 112));
-        blockColors.put(Material.BRICKS, Color.fromRGB(178, 34, 34));
-
-        // Некоторые структуры, генерируемые на поверхности
-        blockColors.put(Material.COBWEB, Color.fromRGB(255, 255, 255)); // Белый
-        blockColors.put(Material.BEE_NEST, Color.fromRGB(255, 215, 0)); // Золотистый
-    }
-
-    private Color getBlockColor(Material material) {
-        return blockColors.getOrDefault(material, Color.fromRGB(150, 150, 150)); // Серый по умолчанию
+    public boolean shareSession(UUID ownerId, double viewRadius) {
+        HologramSession session = activeSessions.get(ownerId);
+        if (session == null) {
+            return false;
+        }
+        session.share(viewRadius);
+        return true;
     }
 
     /**
-     * Сессия голограммы
+     * Добавляет игрока в зрители общей карты владельца, выводя его из предыдущей
      */
-    record HologramSession(UUID playerId, Location center, long createdAt, double renderDistance, BukkitTask task, BukkitTask updateTask,
-                           List<Pair<Vector, Material>> initialBlockData,
-                           double minWorldX, double maxWorldX, double minWorldY, double maxWorldY, double minWorldZ, double maxWorldZ) {}
-
-    private class InitialScanTask extends BukkitRunnable {
-        private final UUID playerId;
-        private final Location center;
-        private final double renderDistance;
-        private final Location displayLocation;
-
-        public InitialScanTask(final UUID playerId, final Location center, final double renderDistance, final Location displayLocation) {
-            this.playerId = playerId;
-            this.center = center;
-            this.renderDistance = renderDistance;
-            this.displayLocation = displayLocation;
-        }
-
-        @Override
-        public void run() {
-            Player player = Bukkit.getPlayer(playerId);
-            if  (player == null || !player.isOnline()) {
-                return;
-            }
-
-            HologramSession existingSession = activeSessions.get(playerId);
-            if (existingSession != null && existingSession.task() != null) {
-                existingSession.task().cancel(); // Отменяем предыдущую задачу отображения
-            }
-
-            final List<Pair<Vector, Material>> blockData = new ArrayList<>();
-            double minWorldX = Double.MAX_VALUE, maxWorldX = Double.MIN_VALUE;
-            double minWorldY = Double.MAX_VALUE, maxWorldY = Double.MIN_VALUE;
-            double minWorldZ = Double.MAX_VALUE, maxWorldZ = Double.MIN_VALUE;
-            final World world = center.getWorld();
-
-            for (int x = (int) -renderDistance; x <= renderDistance; x++) {
-                for (int z = (int) -renderDistance; z <= renderDistance; z++) {
-                    double distance = Math.sqrt(x * x + z * z);
-                    if (distance <= renderDistance) {
-                        int worldY = world.getHighestBlockYAt(center.getBlockX() + x, center.getBlockZ() + z);
-                        Block block = world.getBlockAt(center.getBlockX() + x, worldY, center.getBlockZ() + z);
-                        Vector offset = new Vector(x, worldY - center.getBlockY(), z);
-                        blockData.add(ImmutablePair.of(offset, block.getType()));
-
-                        minWorldX = Math.min(minWorldX, offset.getX());
-                        maxWorldX = Math.max(maxWorldX, offset.getX());
-                        minWorldY = Math.min(minWorldY, offset.getY());
-                        maxWorldY = Math.max(maxWorldY, offset.getY());
-                        minWorldZ = Math.min(minWorldZ, offset.getZ());
-                        maxWorldZ = Math.max(maxWorldZ, offset.getZ());
-                    }
-                }
-            }
-
-            final double finalMinWorldX = minWorldX;
-            final double finalMaxWorldX = maxWorldX;
-            final double finalMinWorldY = minWorldY;
-            final double finalMaxWorldY = maxWorldY;
-            final double finalMinWorldZ = minWorldZ;
-            final double finalMaxWorldZ = maxWorldZ;
-            final List<Pair<Vector, Material>> finalBlockData = new ArrayList<>(blockData);
-
-            Bukkit.getScheduler().runTask(plugin, () -> {
-                DisplayMapTask displayTask = new DisplayMapTask(playerId, displayLocation, finalBlockData, finalMinWorldX, finalMaxWorldX, finalMinWorldY, finalMaxWorldY, finalMinWorldZ, finalMaxWorldZ);
-                BukkitTask task = displayTask.runTaskTimer(plugin, 0L, 1L);
-                activeSessions.put(playerId, new HologramSession(playerId, center, System.currentTimeMillis(), renderDistance, task, null,
-                        finalBlockData, finalMinWorldX, finalMaxWorldX, finalMinWorldY, finalMaxWorldY, finalMinWorldZ, finalMaxWorldZ));
-                plugin.getLogger().info("[SCAN] Новая карта отображается для игрока: " + player.getName());
-            });
+    public boolean joinSharedSession(UUID ownerId, Player viewer) {
+        HologramSession session = activeSessions.get(ownerId);
+        if (session == null || !session.isShared() || ownerId.equals(viewer.getUniqueId())) {
+            return false;
         }
+        leaveSharedSession(viewer.getUniqueId());
+        session.members().add(viewer.getUniqueId());
+        sharedMemberships.put(viewer.getUniqueId(), ownerId);
+        return true;
     }
 
-    private class DisplayMapTask extends BukkitRunnable {
-        private final UUID playerId;
-        private final Location displayLocation;
-        private final List<Pair<Vector, Material>> blockData;
-        private final double minWorldX;
-        private final double maxWorldX;
-        private final double minWorldY;
-        private final double maxWorldY;
-        private final double minWorldZ;
-        private final double maxWorldZ;
-
-        public DisplayMapTask(final UUID playerId, final Location displayLocation, final List<Pair<Vector, Material>> blockData,
-                              final double minWorldX, final double maxWorldX, final double minWorldY, final double maxWorldY,
-                              final double minWorldZ, final double maxWorldZ) {
-            this.playerId = playerId;
-            this.displayLocation = displayLocation;
-            this.blockData = blockData;
-            this.minWorldX = minWorldX;
-            this.maxWorldX = maxWorldX;
-            this.minWorldY = minWorldY;
-            this.maxWorldY = maxWorldY;
-            this.minWorldZ = minWorldZ;
-            this.maxWorldZ = maxWorldZ;
-        }
-
-        @Override
-        public void run() {
-            final Player player = Bukkit.getPlayer(playerId);
-            if (player == null || !player.isOnline()) {
-                cancel();
-                activeSessions.remove(playerId);
-                return;
-            }
-
-            final Location displayCenter = displayLocation;
-            final double displayWidth = 10;
-            final double displayHeight = 5;
-            final double displayDepth = 10;
-            final World world = player.getWorld();
-            final float particleSize = (float) plugin.getConfig().getDouble("particleSize", 0.8);
-            final Engine engine = JavaPlugin.getPlugin(HoloTopography.class).getEngine(); // Получаем экземпляр Engine для доступа к getBlockColor
-
-//            player.sendMessage(ChatColor.YELLOW + "Начало отображения " + blockData.size() + " частиц...");
-            int particlesSpawned = 0;
-
-            for (final Pair<Vector, Material> data : blockData) { // Итерируемся по списку пар
-                final Vector offset = data.getKey();
-                final Material material = data.getValue();
-
-                final double rangeX = maxWorldX - minWorldX;
-                final double rangeY = maxWorldY - minWorldY;
-                final double rangeZ = maxWorldZ - minWorldZ;
-
-                double normalizedX = (rangeX == 0) ? 0.5 : (offset.getX() - minWorldX) / rangeX;
-                double normalizedY = (rangeY == 0) ? 0.5 : (offset.getY() - minWorldY) / rangeY;
-                double normalizedZ = (rangeZ == 0) ? 0.5 : (offset.getZ() - minWorldZ) / rangeZ;
-
-                final double displayX = displayCenter.getX() - displayWidth / 2 + normalizedX * displayWidth;
-                final double displayY = displayCenter.getY() + normalizedY * displayHeight;
-                final double displayZ = displayCenter.getZ() - displayDepth / 2 + normalizedZ * displayDepth;
-
-                final Location particleLocation = new Location(world, displayX, displayY, displayZ);
-                final Color particleColor = engine.getBlockColor(material); // Получаем цвет на основе типа блока
-
-                try {
-                    player.spawnParticle(Particle.DUST, particleLocation, 1, 0, 0, 0, particleSize, new Particle.DustOptions(particleColor, particleSize));
-                    particlesSpawned++;
-                } catch (Exception e) {
-                    player.sendMessage(ChatColor.RED + "Ошибка спавна частицы: " + e.getMessage());
-                    e.printStackTrace();
-                }
-            }
-//            player.sendMessage(ChatColor.GREEN + "Отображено " + particlesSpawned + " частиц с учетом цвета блоков.");
+    /**
+     * Выводит игрока из общей карты, в которой он зритель
+     */
+    public boolean leaveSharedSession(UUID viewerId) {
+        UUID ownerId = sharedMemberships.remove(viewerId);
+        if (ownerId == null) {
+            return false;
         }
-
+        HologramSession session = activeSessions.get(ownerId);
+        if (session != null) {
+            session.members().remove(viewerId);
+        }
+        return true;
     }
 
     /**
-     * Задача рендеринга топографии
+     * Включает или выключает следование карты за игроком
      */
-    private class RenderTask extends BukkitRunnable {
-        private final UUID playerId;
-        private final Location center;
-        private final double renderDistance;
-
-        public RenderTask(UUID playerId, Location center, double renderDistance) {
-            this.playerId = playerId;
-            this.center = center;
-            this.renderDistance = renderDistance;
-        }
-        
-        @Override
-        public void run() {
-            Player player = Bukkit.getPlayer(playerId);
-            if (player == null || !player.isOnline()) {
-                this.cancel();
-                activeSessions.remove(playerId);
-                return;
-            }
-            
-            // Получаем текущий мир игрока
-            World world = player.getWorld();
-            
-            // Логируем информацию о мире для диагностики
-            if (plugin.getConfig().getBoolean("debug", false)) {
-                plugin.getLogger().info("Мир: " + world.getName() + 
-                                      ", Мин. высота: " + world.getMinHeight() + 
-                                      ", Макс. высота: " + world.getMaxHeight());
-            }
-            
-            // Определяем границы рендеринга
-            int minX = (int) (center.getBlockX() - renderDistance);
-            int maxX = (int) (center.getBlockX() + renderDistance);
-            int minZ = (int) (center.getBlockZ() - renderDistance);
-            int maxZ = (int) (center.getBlockZ() + renderDistance);
-            
-            // Максимальное расстояние показа частиц
-            double maxParticleDistance = plugin.getConfig().getDouble("particleRenderDistance", 60.0);
-            float particleSize = (float) plugin.getConfig().getDouble("particleSize", 0.8);
-            
-            // Используем значительно меньший шаг для гарантии отображения
-            int step = Math.max(1, (int) (renderDistance / 10)); 
-            
-            // Счетчик для отладки
-            int particleCount = 0;
-            int blocksScanned = 0;
-            
-            // Основной алгоритм сканирования
-            for (int x = minX; x <= maxX; x += step) {
-                for (int z = minZ; z <= maxZ; z += step) {
-                    blocksScanned++;
-                    
-                    // Проверка на нахождение в радиусе
-                    double distanceFromCenter = Math.sqrt(Math.pow(x - center.getBlockX(), 2) + 
-                                                       Math.pow(z - center.getBlockZ(), 2));
-                    if (distanceFromCenter > renderDistance) continue;
-                    
-                    // Ищем блок для отображения
-                    int y;
-                    try {
-                        // Сначала пробуем получить высоту
-                        y = world.getHighestBlockYAt(x, z);
-                        
-                        // Проверка на недопустимую высоту
-                        if (y < 1) {
-                            // Иногда метод getHighestBlockYAt возвращает -1, если чанк не полностью загружен
-                            // В этом случае пробуем использовать фиксированную высоту
-                            y = center.getBlockY();
-                        }
-                    } catch (Exception e) {
-                        // В случае ошибки используем высоту игрока
-                        plugin.getLogger().warning("Ошибка при определении высоты блока: " + e.getMessage());
-                        y = center.getBlockY();
-                    }
-                    
-                    // Проверяем расстояние от игрока для оптимизации
-                    Location blockLoc = new Location(world, x, y, z);
-                    double playerDistance = blockLoc.distance(player.getLocation());
-                    
-                    // Увеличиваем дистанцию отображения для большей видимости
-                    if (playerDistance > maxParticleDistance) continue;
-                    
-                    // Расчёт цвета в зависимости от высоты
-                    // Учитываем потенциальные проблемы с определением диапазона высот
-                    double normalizedHeight;
-                    try {
-                        normalizedHeight = (double) (y - world.getMinHeight()) / 
-                                          Math.max(1, world.getMaxHeight() - world.getMinHeight());
-                        
-                        // Защита от некорректных значений
-                        normalizedHeight = Math.max(0, Math.min(1, normalizedHeight));
-                    } catch (Exception e) {
-                        // Если что-то пошло не так, используем значение по умолчанию
-                        normalizedHeight = 0.5;
-                    }
-                    
-                    // Создаем final копии для лямбда-выражения
-                    final int finalX = x;
-                    final int finalY = y;
-                    final int finalZ = z;
-                    
-                    // Увеличиваем счетчик частиц
-                    particleCount++;
-                    
-                    // Ограничиваем максимальное количество частиц для производительности
-                    if (particleCount >= 500 && plugin.getConfig().getBoolean("limitParticles", true)) {
-                        break;
-                    }
-                }
-                
-                // Проверка лимита частиц
-                if (particleCount >= 500 && plugin.getConfig().getBoolean("limitParticles", true)) {
-                    break;
-                }
-            }
-            
-            // Отладочные сообщения
-            if (particleCount == 0) {
-                plugin.getLogger().info("Не удалось создать частицы для игрока " + player.getName() + 
-                                       ". Проверено блоков: " + blocksScanned);
-                player.sendActionBar(ChatColor.RED + "Не удалось создать топографическую карту");
-            } else {
-                player.sendActionBar(ChatColor.GREEN + "Топографическая карта: " + particleCount + " точек");
-                if (plugin.getConfig().getBoolean("debug", false)) {
-                    plugin.getLogger().info("Создано " + particleCount + " частиц для игрока " + player.getName() + 
-                                           " из " + blocksScanned + " проверенных блоков");
-                }
-            }
+    public boolean setFollowing(Player player, boolean following) {
+        HologramSession session = activeSessions.get(player.getUniqueId());
+        if (session == null) {
+            return false;
+        }
+        session.setFollowing(following, player.getLocation());
+        if (session.heightField() != null) {
+            session.update(session.heightField());
         }
+        return true;
     }
+
+    /**
+     * Информация о голограмме (для команд и API)
+     */
+    public record HologramInfo(UUID playerId, Location center, long createdAt, double renderDistance, RenderMode renderMode,
+                               boolean following, boolean shared, int memberCount) {}
 }
@@ -0,0 +1,408 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Material;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Карта высот области вокруг центра карты.
+ * Плотная сетка (2r+1)x(2r+1): высота колонки в short и индекс материала в палитре.
+ * Колонки вне круга или ещё не отсканированные помечены индексом {@link #ABSENT}.
+ * <p>
+ * Сетка хранится как тороидальный кольцевой буфер: при сдвиге центра ({@link #recenter})
+ * данные не переставляются, меняется только сдвиг кольца. Индексы во всех методах —
+ * логические (от края карты), перевод в ячейку хранения делает {@link #cell}.
+ */
+final class HeightField {
+    static final short ABSENT = -1;
+
+    private int centerX;
+    private final int centerY;
+    private int centerZ;
+    private final int radius;
+    private final int side;
+    private final short[] heights;
+    private final short[] paletteIndices;
+
+    private final List<Material> palette = new ArrayList<>();
+    private final Map<Material, Short> paletteLookup = new ConcurrentHashMap<>();
+
+    // Сдвиг кольцевого буфера по X и Z (0 у карты, которая не сдвигалась)
+    private int shiftX;
+    private int shiftZ;
+
+    private int columnCount;
+    private int minX, maxX, minY, maxY, minZ, maxZ;
+
+    HeightField(int centerX, int centerY, int centerZ, int radius) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.centerZ = centerZ;
+        this.radius = radius;
+        this.side = radius * 2 + 1;
+        this.heights = new short[side * side];
+        this.paletteIndices = new short[side * side];
+        Arrays.fill(paletteIndices, ABSENT);
+    }
+
+    private HeightField(HeightField source) {
+        this.centerX = source.centerX;
+        this.centerY = source.centerY;
+        this.centerZ = source.centerZ;
+        this.radius = source.radius;
+        this.side = source.side;
+        this.heights = source.heights.clone();
+        this.paletteIndices = source.paletteIndices.clone();
+        synchronized (source) {
+            this.palette.addAll(source.palette);
+        }
+        this.paletteLookup.putAll(source.paletteLookup);
+        this.shiftX = source.shiftX;
+        this.shiftZ = source.shiftZ;
+        this.columnCount = source.columnCount;
+        this.minX = source.minX;
+        this.maxX = source.maxX;
+        this.minY = source.minY;
+        this.maxY = source.maxY;
+        this.minZ = source.minZ;
+        this.maxZ = source.maxZ;
+    }
+
+    /**
+     * Независимая копия (главный поток): по ней отображение строится в пуле,
+     * пока сама карта продолжает меняться. Стоит два копирования массивов, без обхода колонок.
+     */
+    HeightField copy() {
+        return new HeightField(this);
+    }
+
+    int centerX() {
+        return centerX;
+    }
+
+    int centerY() {
+        return centerY;
+    }
+
+    int centerZ() {
+        return centerZ;
+    }
+
+    int radius() {
+        return radius;
+    }
+
+    /**
+     * Длина стороны сетки: индекс ячейки равен (offsetX + radius) * side + (offsetZ + radius)
+     */
+    int side() {
+        return side;
+    }
+
+    /**
+     * Число ячеек сетки (включая пустые)
+     */
+    int size() {
+        return heights.length;
+    }
+
+    /**
+     * Число отсканированных колонок (актуально после {@link #recomputeBounds()})
+     */
+    int columnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Индекс ячейки по смещению от центра или -1, если смещение вне сетки
+     */
+    int indexOf(int offsetX, int offsetZ) {
+        if (offsetX < -radius || offsetX > radius || offsetZ < -radius || offsetZ > radius) {
+            return -1;
+        }
+        return (offsetX + radius) * side + (offsetZ + radius);
+    }
+
+    int offsetX(int index) {
+        return index / side - radius;
+    }
+
+    int offsetZ(int index) {
+        return index % side - radius;
+    }
+
+    /**
+     * Ячейка хранения для логического индекса. Ячейка колонки не меняется, пока колонка остаётся на карте.
+     */
+    int cell(int index) {
+        if ((shiftX | shiftZ) == 0) {
+            return index;
+        }
+        int x = index / side + shiftX;
+        int z = index % side + shiftZ;
+        if (x >= side) {
+            x -= side;
+        }
+        if (z >= side) {
+            z -= side;
+        }
+        return x * side + z;
+    }
+
+    boolean isPresent(int index) {
+        return paletteIndices[cell(index)] != ABSENT;
+    }
+
+    /**
+     * Абсолютная высота колонки (мировая координата Y)
+     */
+    int height(int index) {
+        return heights[cell(index)];
+    }
+
+    /**
+     * Высота колонки относительно центра карты
+     */
+    int offsetY(int index) {
+        return heights[cell(index)] - centerY;
+    }
+
+    short paletteIndex(int index) {
+        return paletteIndices[cell(index)];
+    }
+
+    Material material(int index) {
+        return paletteEntry(paletteIndices[cell(index)]);
+    }
+
+    synchronized Material paletteEntry(int paletteIndex) {
+        return palette.get(paletteIndex);
+    }
+
+    synchronized int paletteSize() {
+        return palette.size();
+    }
+
+    /**
+     * Записывает колонку. Пустая колонка (AIR) не отображается и помечается как отсутствующая.
+     * Разные колонки можно писать из разных потоков одновременно.
+     */
+    void set(int index, int worldY, Material material) {
+        final int cell = cell(index);
+        heights[cell] = (short) worldY;
+        paletteIndices[cell] = material == Material.AIR ? ABSENT : paletteIndexOf(material);
+    }
+
+    /**
+     * Записывает колонки чанка, попадающие в круг радиуса sqrt(radiusSquared) вокруг центра.
+     * Разные чанки можно записывать из разных потоков одновременно.
+     */
+    void fill(ChunkColumns columns, double radiusSquared) {
+        final int baseX = (columns.chunkX() << 4) - centerX;
+        final int baseZ = (columns.chunkZ() << 4) - centerZ;
+        for (int localX = 0; localX < 16; localX++) {
+            final int x = baseX + localX;
+            for (int localZ = 0; localZ < 16; localZ++) {
+                final int z = baseZ + localZ;
+                final int index = indexOf(x, z);
+                if (index < 0 || x * x + z * z > radiusSquared) {
+                    continue;
+                }
+                set(index, columns.height(localX, localZ), columns.material(localX, localZ));
+            }
+        }
+    }
+
+    void clear(int index) {
+        paletteIndices[cell(index)] = ABSENT;
+    }
+
+    /**
+     * Переносит центр карты, сдвигая кольцевой буфер (главный поток, без параллельных сканирований этой карты).
+     * Колонки, вышедшие за круг радиуса sqrt(radiusSquared), очищаются. Для каждой очищенной
+     * и каждой вошедшей в круг колонки вызывается changed с её логическим индексом уже в новых
+     * координатах: вошедшие колонки остаются пустыми, пока вызывающий их не запишет.
+     * Работа пропорциональна radius * сдвиг, а не площади карты.
+     */
+    void recenter(int newCenterX, int newCenterZ, double radiusSquared, IntConsumer changed) {
+        final int dx = newCenterX - centerX;
+        final int dz = newCenterZ - centerZ;
+        if (dx == 0 && dz == 0) {
+            return;
+        }
+        centerX = newCenterX;
+        centerZ = newCenterZ;
+        if (Math.abs(dx) >= side || Math.abs(dz) >= side) {
+            // Прыжок дальше размера карты (телепорт): старых данных не остаётся
+            Arrays.fill(paletteIndices, ABSENT);
+            for (int x = -radius; x <= radius; x++) {
+                final int halfWidth = halfWidth(x, radiusSquared);
+                for (int z = -halfWidth; z <= halfWidth; z++) {
+                    changed.accept(indexOf(x, z));
+                }
+            }
+            return;
+        }
+        shiftX = Math.floorMod(shiftX + dx, side);
+        shiftZ = Math.floorMod(shiftZ + dz, side);
+
+        // Строки и столбцы, перешедшие с противоположного края кольца, целиком новые
+        final int reusedZFrom = dz > 0 ? radius - dz + 1 : -radius;
+        final int reusedZTo = dz > 0 ? radius : -radius - dz - 1;
+        final int keptZFrom = dz > 0 ? -radius : -radius - dz;
+        final int keptZTo = dz > 0 ? radius - dz : radius;
+        for (int x = -radius; x <= radius; x++) {
+            final int newHalfWidth = halfWidth(x, radiusSquared);
+            final int oldX = x + dx;
+            if (oldX < -radius || oldX > radius) {
+                for (int z = -radius; z <= radius; z++) {
+                    replace(x, z, newHalfWidth, changed);
+                }
+                continue;
+            }
+            for (int z = reusedZFrom; z <= reusedZTo; z++) {
+                replace(x, z, newHalfWidth, changed);
+            }
+
+            // В остальной части строки колонка прежняя: меняются только концы отрезка внутри круга
+            final int oldHalfWidth = halfWidth(oldX, radiusSquared);
+            final int newFrom = Math.max(-newHalfWidth, keptZFrom);
+            final int newTo = Math.min(newHalfWidth, keptZTo);
+            final int oldFrom = Math.max(-oldHalfWidth - dz, keptZFrom);
+            final int oldTo = Math.min(oldHalfWidth - dz, keptZTo);
+            if (newFrom > newTo || oldFrom > oldTo) {
+                for (int z = Math.min(newFrom, oldFrom); z <= Math.max(newTo, oldTo); z++) {
+                    updateMembership(x, z, newFrom, newTo, oldFrom, oldTo, changed);
+                }
+                continue;
+            }
+            for (int z = Math.min(newFrom, oldFrom); z < Math.max(newFrom, oldFrom); z++) {
+                updateMembership(x, z, newFrom, newTo, oldFrom, oldTo, changed);
+            }
+            for (int z = Math.min(newTo, oldTo) + 1; z <= Math.max(newTo, oldTo); z++) {
+                updateMembership(x, z, newFrom, newTo, oldFrom, oldTo, changed);
+            }
+        }
+    }
+
+    /**
+     * Колонка (x, z) занимает ячейку, где раньше была колонка с другого края кольца
+     */
+    private void replace(int x, int z, int newHalfWidth, IntConsumer changed) {
+        final int index = indexOf(x, z);
+        final int cell = cell(index);
+        final boolean wasPresent = paletteIndices[cell] != ABSENT;
+        paletteIndices[cell] = ABSENT;
+        if (Math.abs(z) <= newHalfWidth || wasPresent) {
+            changed.accept(index);
+        }
+    }
+
+    private void updateMembership(int x, int z, int newFrom, int newTo, int oldFrom, int oldTo, IntConsumer changed) {
+        final boolean inNew = z >= newFrom && z <= newTo;
+        final boolean inOld = z >= oldFrom && z <= oldTo;
+        if (inNew == inOld) {
+            return;
+        }
+        final int index = indexOf(x, z);
+        if (!inNew) {
+            paletteIndices[cell(index)] = ABSENT;
+        }
+        changed.accept(index);
+    }
+
+    /**
+     * Полуширина круга в строке x: колонки с |z| не больше неё лежат внутри (-1, если строка вне круга)
+     */
+    private int halfWidth(int x, double radiusSquared) {
+        final double rest = radiusSquared - (double) x * x;
+        if (rest < 0) {
+            return -1;
+        }
+        int halfWidth = Math.min(radius, (int) Math.sqrt(rest));
+        while (halfWidth < radius && (double) (halfWidth + 1) * (halfWidth + 1) <= rest) {
+            halfWidth++;
+        }
+        while (halfWidth >= 0 && (double) halfWidth * halfWidth > rest) {
+            halfWidth--;
+        }
+        return halfWidth;
+    }
+
+    private short paletteIndexOf(Material material) {
+        Short paletteIndex = paletteLookup.get(material);
+        if (paletteIndex != null) {
+            return paletteIndex;
+        }
+        synchronized (this) {
+            paletteIndex = paletteLookup.get(material);
+            if (paletteIndex == null) {
+                paletteIndex = (short) palette.size();
+                palette.add(material);
+                paletteLookup.put(material, paletteIndex);
+            }
+            return paletteIndex;
+        }
+    }
+
+    /**
+     * Пересчитывает границы по всем колонкам (смещения от центра). Вызывать после пакета изменений.
+     */
+    void recomputeBounds() {
+        int count = 0;
+        int newMinX = Integer.MAX_VALUE, newMaxX = Integer.MIN_VALUE;
+        int newMinY = Integer.MAX_VALUE, newMaxY = Integer.MIN_VALUE;
+        int newMinZ = Integer.MAX_VALUE, newMaxZ = Integer.MIN_VALUE;
+        for (int index = 0; index < paletteIndices.length; index++) {
+            if (paletteIndices[cell(index)] == ABSENT) {
+                continue;
+            }
+            count++;
+            final int x = offsetX(index);
+            final int y = offsetY(index);
+            final int z = offsetZ(index);
+            newMinX = Math.min(newMinX, x);
+            newMaxX = Math.max(newMaxX, x);
+            newMinY = Math.min(newMinY, y);
+            newMaxY = Math.max(newMaxY, y);
+            newMinZ = Math.min(newMinZ, z);
+            newMaxZ = Math.max(newMaxZ, z);
+        }
+        this.columnCount = count;
+        this.minX = newMinX;
+        this.maxX = newMaxX;
+        this.minY = newMinY;
+        this.maxY = newMaxY;
+        this.minZ = newMinZ;
+        this.maxZ = newMaxZ;
+    }
+
+    int minX() {
+        return minX;
+    }
+
+    int maxX() {
+        return maxX;
+    }
+
+    int minY() {
+        return minY;
+    }
+
+    int maxY() {
+        return maxY;
+    }
+
+    int minZ() {
+        return minZ;
+    }
+
+    int maxZ() {
+        return maxZ;
+    }
+}
@@ -0,0 +1,102 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Location;
+
+import java.util.BitSet;
+
+/**
+ * Способ вывода карты сессии игрокам.
+ * Все методы вызываются с главного потока из тика движка.
+ */
+interface HologramRenderer {
+
+    /**
+     * Перестраивает отображение по текущей карте высот сессии
+     * (новое сканирование, изменённые колонки, смена режима)
+     */
+    void update(HologramSession session);
+
+    /**
+     * Умеет ли рендерер обновляться только по изменившимся колонкам ({@link #updateColumns})
+     */
+    default boolean updatesByColumns() {
+        return false;
+    }
+
+    /**
+     * С прошлого обновления изменились только колонки dirty (логические индексы карты высот сессии).
+     * Границы карты высот при этом не пересчитаны.
+     */
+    default void updateColumns(HologramSession session, BitSet dirty) {
+    }
+
+    /**
+     * Строит ли рендерер отображение в фоне по копии карты высот (и сам пересчитывает её границы)
+     */
+    default boolean buildsInBackground() {
+        return false;
+    }
+
+    /**
+     * Подменяет отображение результатом фонового построения, если он готов.
+     * Вызывается в начале обработки сессии в тике.
+     */
+    default void publish() {
+    }
+
+    /**
+     * Сколько частиц рендерер хочет отправлять за тик. 0 — рендерер не тратит общий лимит частиц
+     * и не вызывается каждый тик.
+     */
+    default int particleDemand() {
+        return 0;
+    }
+
+    /**
+     * Сколько пакетов (точка x получатель) рендерер хочет отправить в этом тике получателям сессии.
+     * Вызывается в тике после сбора получателей, перед {@link #render}.
+     */
+    default int packetDemand(HologramSession session) {
+        return 0;
+    }
+
+    /**
+     * Отправляет получателям сессии не больше packets пакетов (точка x получатель).
+     * Возвращает число отправленных пакетов.
+     */
+    default int render(HologramSession session, int packets) {
+        return 0;
+    }
+
+    /**
+     * Получатели сессии могли измениться: показать карту новым и скрыть от ушедших
+     */
+    default void updateViewers(HologramSession session) {
+    }
+
+    /**
+     * Умеет ли рендерер сдвигаться вместе с картой следования по колонкам ({@link #updateColumn}, {@link #moveTo}).
+     * Иначе после сдвига карта перестраивается целиком через {@link #update}.
+     */
+    default boolean followsIncrementally() {
+        return false;
+    }
+
+    default void updateColumn(HeightField heightField, int index) {
+    }
+
+    default void moveTo(HeightField heightField, Location displayLocation) {
+    }
+
+    /**
+     * Новый снимок настроек: рендерер запоминает нужные ему значения.
+     * Отображение перестраивается следующим {@link #update}.
+     */
+    default void applySettings(Settings settings) {
+    }
+
+    /**
+     * Убирает всё, что рендерер показал
+     */
+    void close();
+}
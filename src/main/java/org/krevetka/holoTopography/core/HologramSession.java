@@ -0,0 +1,232 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.util.Vector;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Сессия голограммы.
+ * Всё состояние меняется только с главного потока из общего тика движка,
+ * кроме очереди arrivedChunks, которую пополняет пул сканера.
+ */
+final class HologramSession {
+    private final UUID playerId;
+    private Location center;
+    private Location displayLocation;
+    private final long createdAt;
+    private final double renderDistance;
+
+    private RenderMode renderMode;
+    private boolean following;
+    // Смещение места отображения от игрока, сохраняемое в режиме следования
+    private Vector displayOffset;
+    // Общая карта: участники и радиус, в котором карту видят все игроки (0 — только участники)
+    private boolean shared;
+    private double viewRadius;
+    private final Set<UUID> members = new LinkedHashSet<>();
+    private HeightField heightField;
+    private HologramRenderer renderer;
+    private volatile boolean closed; // Читается потоками сканера для отмены
+
+    // Расписание сессии в тиках движка
+    long nextUpdateTick;
+    long nextFullScanTick;
+    boolean scanInFlight;
+    boolean scanQueued;
+    boolean scanPending;
+    // Сканирование большой карты по частям (null — не идёт)
+    ProgressiveScan progressiveScan;
+
+    // Отображение устарело после движения в режиме, который не обновляется по колонкам
+    boolean displayStale;
+    // Ошибки отображения подряд и тик, раньше которого о следующей ошибке не сообщается
+    int renderFailures;
+    long nextRenderErrorReportTick;
+    // Карта высот изменилась, отображение ещё не перестроено; раньше nextRebuildTick не перестраивается
+    boolean rebuildPending;
+    long nextRebuildTick;
+    // Колонки (логические индексы), изменившиеся с последней перестройки; fullRebuild — перестроить всё
+    private final BitSet dirtyColumns = new BitSet();
+    private boolean fullRebuild;
+
+    // Чанки, запрошенные на подгрузку, и уже обработанные, но ещё не нанесённые на карту
+    final Set<Long> prefetching = new HashSet<>();
+    final Queue<ChunkColumns> arrivedChunks = new ConcurrentLinkedQueue<>();
+
+    // Получатели карты: владелец и зрители общей карты (собираются движком)
+    final List<Player> receivers = new ArrayList<>();
+
+    HologramSession(UUID playerId, Location center, Location displayLocation, double renderDistance, RenderMode renderMode) {
+        this.playerId = playerId;
+        this.center = center;
+        this.displayLocation = displayLocation;
+        this.renderDistance = renderDistance;
+        this.renderMode = renderMode;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    UUID playerId() {
+        return playerId;
+    }
+
+    Location center() {
+        return center;
+    }
+
+    Location displayLocation() {
+        return displayLocation;
+    }
+
+    void moveTo(Location center, Location displayLocation) {
+        this.center = center;
+        this.displayLocation = displayLocation;
+    }
+
+    boolean isFollowing() {
+        return following;
+    }
+
+    /**
+     * Карта следования из точек: её буфер сдвигается по колонкам вместе с картой высот
+     */
+    boolean followsByColumns() {
+        return following && renderMode == RenderMode.POINTS;
+    }
+
+    Vector displayOffset() {
+        return displayOffset;
+    }
+
+    /**
+     * Включает следование за игроком; место отображения сохраняет текущее смещение от игрока
+     */
+    void setFollowing(boolean following, Location playerLocation) {
+        this.following = following;
+        this.displayOffset = following ? displayLocation.toVector().subtract(playerLocation.toVector()) : null;
+    }
+
+    long createdAt() {
+        return createdAt;
+    }
+
+    double renderDistance() {
+        return renderDistance;
+    }
+
+    RenderMode renderMode() {
+        return renderMode;
+    }
+
+    void setRenderMode(RenderMode renderMode) {
+        this.renderMode = renderMode;
+    }
+
+    /**
+     * Общая карта: её видят участники и игроки в радиусе viewRadius
+     */
+    boolean isShared() {
+        return shared;
+    }
+
+    double viewRadius() {
+        return viewRadius;
+    }
+
+    void share(double viewRadius) {
+        this.shared = true;
+        this.viewRadius = Math.max(0, viewRadius);
+    }
+
+    /**
+     * Участники общей карты (без владельца)
+     */
+    Set<UUID> members() {
+        return members;
+    }
+
+    /**
+     * Карта высот или null, пока не завершилось первое сканирование
+     */
+    HeightField heightField() {
+        return heightField;
+    }
+
+    HologramRenderer renderer() {
+        return renderer;
+    }
+
+    /**
+     * Меняет рендерер, убирая всё, что показывал прежний.
+     * Новый рендерер строит отображение в ближайшем тике движка.
+     */
+    void setRenderer(HologramRenderer renderer) {
+        if (this.renderer != null) {
+            this.renderer.close();
+        }
+        this.renderer = renderer;
+        rebuildPending = heightField != null;
+        fullRebuild = true;
+    }
+
+    /**
+     * Заменяет карту высот (или сообщает об изменениях в текущей).
+     * Отображение перестраивается позже, в тике движка ({@link #rebuild}).
+     */
+    void update(HeightField heightField) {
+        this.heightField = heightField;
+        rebuildPending = true;
+        fullRebuild = true;
+    }
+
+    /**
+     * Изменилась одна колонка текущей карты высот (изменение блоков)
+     */
+    void columnChanged(int index) {
+        dirtyColumns.set(index);
+        rebuildPending = true;
+    }
+
+    /**
+     * Перестраивает отображение по текущей карте высот. Если менялись только отдельные колонки,
+     * а рендерер умеет обновляться по ним, обходятся только они: у карты следования индексы колонок
+     * сдвигаются вместе с ней, поэтому она всегда перестраивается целиком.
+     * Границы карты пересчитываются здесь только для рендереров, строящих отображение на главном потоке.
+     */
+    void rebuild() {
+        rebuildPending = false;
+        if (heightField != null) {
+            if (!fullRebuild && !following && renderer.updatesByColumns()) {
+                renderer.updateColumns(this, dirtyColumns);
+            } else {
+                if (!renderer.buildsInBackground()) {
+                    heightField.recomputeBounds();
+                }
+                renderer.update(this);
+            }
+        }
+        fullRebuild = false;
+        dirtyColumns.clear();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        closed = true;
+        heightField = null;
+        if (renderer != null) {
+            renderer.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.krevetka.holoTopography.core;
+
+import java.util.PriorityQueue;
+
+/**
+ * Прореживание карты высот квадродеревом.
+ * Узлы с наибольшим перепадом высот делятся первыми, пока число листьев
+ * не достигнет бюджета точек. Каждый лист становится одной точкой:
+ * ровные участки схлопываются, крутые склоны сохраняют полную детализацию.
+ * Если перепады кончились раньше бюджета, делятся самые крупные ровные узлы.
+ */
+final class LodDecimator {
+    private static final int COLUMNS_PER_CHUNK = 16 * 16;
+
+    private final HeightField heightField;
+    private final int side;
+
+    private LodDecimator(HeightField heightField) {
+        this.heightField = heightField;
+        this.side = heightField.side();
+    }
+
+    /**
+     * Бюджет точек для карты при заданной плотности на чанк (не меньше одной точки)
+     */
+    static int pointBudget(HeightField heightField, int particlesPerChunk) {
+        return Math.max(1, (int) Math.ceil(heightField.columnCount() * (double) particlesPerChunk / COLUMNS_PER_CHUNK));
+    }
+
+    /**
+     * Не больше targetPoints точек, представляющих карту высот
+     */
+    static TerrainPoints decimate(HeightField heightField, int targetPoints) {
+        if (targetPoints >= heightField.columnCount()) {
+            return TerrainPoints.columns(heightField);
+        }
+        return new LodDecimator(heightField).build(targetPoints);
+    }
+
+    private TerrainPoints build(int targetPoints) {
+        int rootSize = 1;
+        while (rootSize < side) {
+            rootSize <<= 1;
+        }
+
+        final PriorityQueue<Node> queue = new PriorityQueue<>((a, b) -> a.heightRange() != b.heightRange()
+                ? Integer.compare(b.heightRange(), a.heightRange())
+                : Integer.compare(b.size, a.size));
+        final Node root = measure(0, 0, rootSize);
+        if (root != null) {
+            queue.add(root);
+        }
+
+        int leafCount = queue.size();
+        while (!queue.isEmpty() && leafCount < targetPoints) {
+            final Node node = queue.peek();
+            if (node.size == 1) {
+                break; // Все листья уже отдельные колонки
+            }
+            queue.poll();
+            final int half = node.size >> 1;
+            int children = 0;
+            for (int child = 0; child < 4; child++) {
+                final Node measured = measure(node.x + (child & 1) * half, node.z + (child >> 1) * half, half);
+                if (measured != null) {
+                    queue.add(measured);
+                    children++;
+                }
+            }
+            leafCount += children - 1;
+        }
+
+        // Оставшиеся в очереди узлы и есть листья
+        final TerrainPoints points = new TerrainPoints(queue.size());
+        for (Node leaf : queue) {
+            points.add(leaf.sumX / (double) leaf.count - heightField.radius(),
+                    leaf.sumHeight / (double) leaf.count - heightField.centerY(),
+                    leaf.sumZ / (double) leaf.count - heightField.radius(),
+                    heightField.paletteIndex(leaf.representative));
+        }
+        return points;
+    }
+
+    /**
+     * Собирает статистику по колонкам квадрата или возвращает null, если в нём нет колонок
+     */
+    private Node measure(int x0, int z0, int size) {
+        final Node node = new Node(x0, z0, size);
+        final int x1 = Math.min(x0 + size, side);
+        final int z1 = Math.min(z0 + size, side);
+        final double centerX = x0 + (size - 1) / 2.0;
+        final double centerZ = z0 + (size - 1) / 2.0;
+        double nearest = Double.MAX_VALUE;
+        for (int x = x0; x < x1; x++) {
+            for (int z = z0; z < z1; z++) {
+                final int index = x * side + z;
+                if (!heightField.isPresent(index)) {
+                    continue;
+                }
+                final int height = heightField.height(index);
+                node.count++;
+                node.sumX += x;
+                node.sumZ += z;
+                node.sumHeight += height;
+                node.minHeight = Math.min(node.minHeight, height);
+                node.maxHeight = Math.max(node.maxHeight, height);
+                // Материал точки берём у колонки, ближайшей к центру квадрата
+                final double distance = (x - centerX) * (x - centerX) + (z - centerZ) * (z - centerZ);
+                if (distance < nearest) {
+                    nearest = distance;
+                    node.representative = index;
+                }
+            }
+        }
+        return node.count == 0 ? null : node;
+    }
+
+    private static final class Node {
+        private final int x;
+        private final int z;
+        private final int size;
+        private int count;
+        private long sumX;
+        private long sumZ;
+        private long sumHeight;
+        private int minHeight = Integer.MAX_VALUE;
+        private int maxHeight = Integer.MIN_VALUE;
+        private int representative;
+
+        Node(int x, int z, int size) {
+            this.x = x;
+            this.z = z;
+            this.size = size;
+        }
+
+        int heightRange() {
+            return maxHeight - minHeight;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.krevetka.holoTopography.core;
+
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.inventory.meta.MapMeta;
+import org.bukkit.map.MapCanvas;
+import org.bukkit.map.MapRenderer;
+import org.bukkit.map.MapView;
+import org.bukkit.persistence.PersistentDataType;
+
+import java.awt.Color;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Карта на предмете: вид сверху 128x128 с отмывкой рельефа и подкраской по высоте.
+ * Картинка растрируется только при изменении карты высот, холст перерисовывается
+ * только при новой картинке, поэтому карта почти ничего не стоит серверу.
+ * Предмет карты получают один раз владелец и присоединившиеся к общей карте (не все игроки в радиусе).
+ * <p>
+ * Предмет помечен ключом itemKey: {@link SessionListener} убирает помеченные предметы при входе и выходе
+ * игрока, чтобы у вышедших не оставалось копий. MapView возвращается для повторного использования,
+ * только если все выданные копии забраны обратно: иначе оставшаяся копия показала бы чужую карту.
+ */
+final class MapItemRenderer implements HologramRenderer {
+    static final int IMAGE_SIZE = 128;
+    private static final int TRANSPARENT = -1;
+    // Свет с северо-запада под 45 градусов, как на обычных картах рельефа
+    private static final double LIGHT_X = -0.5;
+    private static final double LIGHT_Y = Math.sqrt(0.5);
+    private static final double LIGHT_Z = -0.5;
+    private static final double AMBIENT = 0.45;
+
+    private BlockPalette palette;
+    private final Supplier<MapView> viewSupplier;
+    private final Consumer<MapView> viewRelease;
+    private final NamespacedKey itemKey;
+    private final Set<UUID> holders = new HashSet<>();
+    private final CanvasRenderer canvasRenderer = new CanvasRenderer();
+    private MapView view;
+    private ItemStack item;
+    // Какая-то выданная копия ушла из инвентаря держателя (выброшена, переложена): MapView не переиспользуется
+    private boolean copyLost;
+
+    /**
+     * @param viewSupplier выдаёт свободный MapView
+     * @param viewRelease  возвращает MapView после закрытия рендерера, если копий предмета не осталось
+     * @param itemKey      метка предметов карт плагина
+     */
+    MapItemRenderer(BlockPalette palette, Supplier<MapView> viewSupplier, Consumer<MapView> viewRelease,
+                    NamespacedKey itemKey) {
+        this.palette = palette;
+        this.viewSupplier = viewSupplier;
+        this.viewRelease = viewRelease;
+        this.itemKey = itemKey;
+    }
+
+    @Override
+    public void applySettings(Settings settings) {
+        palette = settings.palette();
+    }
+
+    @Override
+    public void update(HologramSession session) {
+        final HeightField heightField = session.heightField();
+        if (heightField == null) {
+            return;
+        }
+        if (view == null) {
+            view = viewSupplier.get();
+            for (MapRenderer renderer : view.getRenderers()) {
+                view.removeRenderer(renderer);
+            }
+            view.setTrackingPosition(false);
+            view.setUnlimitedTracking(false);
+            view.setLocked(true);
+            view.addRenderer(canvasRenderer);
+            item = new ItemStack(Material.FILLED_MAP);
+            final MapMeta meta = (MapMeta) item.getItemMeta();
+            meta.setMapView(view);
+            meta.displayName(Component.text("Топография"));
+            meta.getPersistentDataContainer().set(itemKey, PersistentDataType.INTEGER, view.getId());
+            item.setItemMeta(meta);
+        }
+        canvasRenderer.image = rasterize(heightField);
+    }
+
+    /**
+     * Растрирует карту высот в RGB-картинку IMAGE_SIZE x IMAGE_SIZE, TRANSPARENT — колонки нет
+     */
+    private int[] rasterize(HeightField heightField) {
+        final int side = heightField.side();
+        final int radius = heightField.radius();
+        final int rangeY = Math.max(1, heightField.maxY() - heightField.minY());
+        final int minY = heightField.centerY() + heightField.minY();
+        final int[] image = new int[IMAGE_SIZE * IMAGE_SIZE];
+        for (int pixelX = 0; pixelX < IMAGE_SIZE; pixelX++) {
+            final int offsetX = pixelX * side / IMAGE_SIZE - radius;
+            for (int pixelZ = 0; pixelZ < IMAGE_SIZE; pixelZ++) {
+                final int offsetZ = pixelZ * side / IMAGE_SIZE - radius;
+                final int index = heightField.indexOf(offsetX, offsetZ);
+                if (!heightField.isPresent(index)) {
+                    image[pixelZ * IMAGE_SIZE + pixelX] = TRANSPARENT;
+                    continue;
+                }
+                final int height = heightField.height(index);
+                // Нормаль по центральным разностям, у края и у пустых соседей берётся сама колонка
+                final double slopeX = (heightAt(heightField, offsetX + 1, offsetZ, height)
+                        - heightAt(heightField, offsetX - 1, offsetZ, height)) / 2.0;
+                final double slopeZ = (heightAt(heightField, offsetX, offsetZ + 1, height)
+                        - heightAt(heightField, offsetX, offsetZ - 1, height)) / 2.0;
+                final double lambert = (-slopeX * LIGHT_X + LIGHT_Y - slopeZ * LIGHT_Z)
+                        / Math.sqrt(slopeX * slopeX + 1 + slopeZ * slopeZ);
+                final double shade = AMBIENT + (1 - AMBIENT) * Math.max(0, lambert);
+                // Выше — светлее: от 0.8 до 1.2 по диапазону высот карты
+                final double tint = 0.8 + 0.4 * (height - minY) / rangeY;
+                image[pixelZ * IMAGE_SIZE + pixelX] = scale(palette.rgb(heightField.material(index)), shade * tint);
+            }
+        }
+        return image;
+    }
+
+    private static int heightAt(HeightField heightField, int offsetX, int offsetZ, int fallback) {
+        final int index = heightField.indexOf(offsetX, offsetZ);
+        return index >= 0 && heightField.isPresent(index) ? heightField.height(index) : fallback;
+    }
+
+    private static int scale(int rgb, double factor) {
+        final int red = Math.min(255, (int) (((rgb >> 16) & 0xFF) * factor));
+        final int green = Math.min(255, (int) (((rgb >> 8) & 0xFF) * factor));
+        final int blue = Math.min(255, (int) ((rgb & 0xFF) * factor));
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Выдаёт предмет новым участникам и забирает у вышедших из общей карты.
+     * Держателем игрок становится, только когда предмет действительно лёг в инвентарь:
+     * при полном инвентаре выдача повторится при следующем обновлении.
+     */
+    @Override
+    public void updateViewers(HologramSession session) {
+        if (item == null) {
+            return;
+        }
+        for (Iterator<UUID> iterator = holders.iterator(); iterator.hasNext(); ) {
+            final UUID holderId = iterator.next();
+            final Player holder = Bukkit.getPlayer(holderId);
+            if (holder == null) {
+                // Вышедший игрок: его копию забрал SessionListener
+                iterator.remove();
+            } else if (!isParticipant(session, holderId)) {
+                takeBack(holder);
+                iterator.remove();
+            } else if (!holder.getInventory().contains(item)) {
+                copyLost = true;
+            }
+        }
+        for (Player receiver : session.receivers) {
+            final UUID receiverId = receiver.getUniqueId();
+            if (holders.contains(receiverId) || !isParticipant(session, receiverId)) {
+                continue;
+            }
+            final PlayerInventory inventory = receiver.getInventory();
+            if (inventory.contains(item) || inventory.addItem(item.clone()).isEmpty()) {
+                holders.add(receiverId);
+            }
+        }
+    }
+
+    private static boolean isParticipant(HologramSession session, UUID playerId) {
+        return playerId.equals(session.playerId()) || session.members().contains(playerId);
+    }
+
+    private void takeBack(Player holder) {
+        if (holder.getInventory().contains(item)) {
+            holder.getInventory().remove(item);
+        } else {
+            copyLost = true;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (view == null) {
+            return;
+        }
+        for (UUID holderId : holders) {
+            final Player holder = Bukkit.getPlayer(holderId);
+            if (holder != null) {
+                takeBack(holder);
+            }
+        }
+        holders.clear();
+        view.removeRenderer(canvasRenderer);
+        if (!copyLost) {
+            viewRelease.accept(view);
+        }
+        view = null;
+        item = null;
+    }
+
+    /**
+     * Убирает из инвентаря игрока все предметы карт плагина (при входе и выходе игрока)
+     */
+    static void removeMapItems(Player player, NamespacedKey itemKey) {
+        final PlayerInventory inventory = player.getInventory();
+        final ItemStack[] contents = inventory.getContents();
+        for (int slot = 0; slot < contents.length; slot++) {
+            final ItemStack stack = contents[slot];
+            if (stack != null && stack.hasItemMeta()
+                    && stack.getItemMeta().getPersistentDataContainer().has(itemKey, PersistentDataType.INTEGER)) {
+                inventory.setItem(slot, null);
+            }
+        }
+    }
+
+    /**
+     * Переносит картинку на холст, только когда она сменилась: холст карты хранит пиксели между кадрами
+     */
+    private static final class CanvasRenderer extends MapRenderer {
+        private int[] image;
+        private int[] drawn;
+
+        @Override
+        public void render(MapView map, MapCanvas canvas, Player player) {
+            final int[] current = image;
+            if (current == null || current == drawn) {
+                return;
+            }
+            drawn = current;
+            for (int x = 0; x < IMAGE_SIZE; x++) {
+                for (int y = 0; y < IMAGE_SIZE; y++) {
+                    final int rgb = current[y * IMAGE_SIZE + x];
+                    if (rgb == TRANSPARENT) {
+                        canvas.setPixelColor(x, y, null);
+                    } else {
+                        canvas.setPixelColor(x, y, new Color(rgb));
+                    }
+                }
+            }
+        }
+    }
+}
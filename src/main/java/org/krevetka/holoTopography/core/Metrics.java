@@ -0,0 +1,179 @@
+package org.krevetka.holoTopography.core;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики движка с момента запуска: счётчики LongAdder и гистограммы с логарифмическими
+ * интервалами. Запись не берёт блокировок и не создаёт объектов, поэтому её можно вызывать
+ * из горячих путей и из потоков сканера.
+ */
+public final class Metrics {
+    private final Histogram tickNanos = new Histogram();
+    private final Histogram scanMillis = new Histogram();
+    private final LongAdder columnsScanned = new LongAdder();
+    private final LongAdder chunksCached = new LongAdder();
+    private final LongAdder chunksSnapshotted = new LongAdder();
+    private final LongAdder chunksMissing = new LongAdder();
+    private final LongAdder particlesSent = new LongAdder();
+    private final LongAdder renderedSessionTicks = new LongAdder();
+    private final long startedAt = System.currentTimeMillis();
+
+    /**
+     * Время главного потока, затраченное движком за тик
+     */
+    void recordTick(long nanos) {
+        tickNanos.record(nanos);
+    }
+
+    /**
+     * Завершённое полное сканирование: длительность от снимков до готовой карты и число колонок
+     */
+    void recordScan(long millis, int columns) {
+        scanMillis.record(millis);
+        columnsScanned.add(columns);
+    }
+
+    /**
+     * Откуда взялись чанки сканирования: из кэша или с диска, со снимка мира, не загружены
+     */
+    void recordChunks(int cached, int snapshotted, int missing) {
+        chunksCached.add(cached);
+        chunksSnapshotted.add(snapshotted);
+        chunksMissing.add(missing);
+    }
+
+    /**
+     * Частицы, отправленные за тик (по пакету на точку и получателя), и число отображавшихся сессий
+     */
+    void recordParticles(long packets, int sessions) {
+        particlesSent.add(packets);
+        renderedSessionTicks.add(sessions);
+    }
+
+    Snapshot snapshot(int activeSessions, int scansRunning, int scansQueued, int prefetchInFlight, double quality) {
+        final long ticks = tickNanos.count();
+        final long rendered = renderedSessionTicks.sum();
+        final long particles = particlesSent.sum();
+        final long cached = chunksCached.sum();
+        final long snapshotted = chunksSnapshotted.sum();
+        return new Snapshot(System.currentTimeMillis() - startedAt, activeSessions, scansRunning, scansQueued,
+                prefetchInFlight, quality, ticks, tickNanos.mean(), tickNanos.percentile(0.5), tickNanos.percentile(0.99),
+                tickNanos.max(), scanMillis.count(), scanMillis.percentile(0.5), scanMillis.percentile(0.99), scanMillis.max(),
+                columnsScanned.sum(), cached + snapshotted == 0 ? 0 : (double) cached / (cached + snapshotted),
+                chunksMissing.sum(), ticks == 0 ? 0 : (double) particles / ticks, rendered == 0 ? 0 : (double) particles / rendered);
+    }
+
+    /**
+     * Снимок метрик для команды и выгрузки. Перцентили — верхние границы интервалов гистограммы.
+     *
+     * @param cacheHitRate        доля чанков сканирования, взятых из кэша или с диска
+     * @param particlesPerTick    частиц за тик на весь сервер
+     * @param particlesPerSession частиц за тик на одну отображаемую сессию
+     */
+    public record Snapshot(long uptimeMillis, int activeSessions, int scansRunning, int scansQueued, int prefetchInFlight,
+                           double quality, long ticks, double tickMeanNanos, long tickP50Nanos, long tickP99Nanos,
+                           long tickMaxNanos, long scans, long scanP50Millis, long scanP99Millis, long scanMaxMillis,
+                           long columnsScanned, double cacheHitRate, long chunksMissing, double particlesPerTick,
+                           double particlesPerSession) {
+
+        static final String CSV_HEADER = "time,uptime_ms,sessions,scans_running,scans_queued,prefetch_in_flight,quality,"
+                + "ticks,tick_mean_ns,tick_p50_ns,tick_p99_ns,tick_max_ns,scans,scan_p50_ms,scan_p99_ms,scan_max_ms,"
+                + "columns_scanned,cache_hit_rate,chunks_missing,particles_per_tick,particles_per_session";
+
+        String toCsv(long time) {
+            return String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%.3f,%d,%.0f,%d,%d,%d,%d,%d,%d,%d,%d,%.4f,%d,%.1f,%.1f",
+                    time, uptimeMillis, activeSessions, scansRunning, scansQueued, prefetchInFlight, quality,
+                    ticks, tickMeanNanos, tickP50Nanos, tickP99Nanos, tickMaxNanos, scans, scanP50Millis, scanP99Millis,
+                    scanMaxMillis, columnsScanned, cacheHitRate, chunksMissing, particlesPerTick, particlesPerSession);
+        }
+
+        String toJson(long time) {
+            return String.format(Locale.ROOT, "{\"time\":%d,\"uptimeMs\":%d,\"sessions\":%d,\"scansRunning\":%d,"
+                            + "\"scansQueued\":%d,\"prefetchInFlight\":%d,\"quality\":%.3f,\"ticks\":%d,\"tickMeanNs\":%.0f,"
+                            + "\"tickP50Ns\":%d,\"tickP99Ns\":%d,\"tickMaxNs\":%d,\"scans\":%d,\"scanP50Ms\":%d,"
+                            + "\"scanP99Ms\":%d,\"scanMaxMs\":%d,\"columnsScanned\":%d,\"cacheHitRate\":%.4f,"
+                            + "\"chunksMissing\":%d,\"particlesPerTick\":%.1f,\"particlesPerSession\":%.1f}",
+                    time, uptimeMillis, activeSessions, scansRunning, scansQueued, prefetchInFlight, quality,
+                    ticks, tickMeanNanos, tickP50Nanos, tickP99Nanos, tickMaxNanos, scans, scanP50Millis, scanP99Millis,
+                    scanMaxMillis, columnsScanned, cacheHitRate, chunksMissing, particlesPerTick, particlesPerSession);
+        }
+    }
+
+    /**
+     * Гистограмма неотрицательных значений: каждая степень двойки делится на SUB_BUCKETS интервалов,
+     * поэтому относительная погрешность не больше 1 / SUB_BUCKETS при любом порядке величин
+     */
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            value = Math.max(0, value);
+            counts.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * Значения меньше SUB_BUCKETS — каждое в своём интервале, дальше по старшим битам
+         */
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+            final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * Наибольшее значение интервала
+         */
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            final int shift = bucket / SUB_BUCKETS - 1;
+            final long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        double mean() {
+            final long total = count.sum();
+            return total == 0 ? 0 : (double) sum.sum() / total;
+        }
+
+        long percentile(double fraction) {
+            final long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(total * fraction));
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length(); bucket++) {
+                seen += counts.get(bucket);
+                if (seen >= rank) {
+                    return Math.min(upperBound(bucket), max());
+                }
+            }
+            return max();
+        }
+    }
+}
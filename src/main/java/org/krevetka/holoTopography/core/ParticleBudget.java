@@ -0,0 +1,51 @@
+package org.krevetka.holoTopography.core;
+
+/**
+ * Делит общий лимит пакетов частиц за тик между сессиями.
+ * Пакет — одна точка, отправленная одному игроку: лимит ограничивает исходящий трафик,
+ * а не число точек, поэтому карта с несколькими зрителями тратит его быстрее.
+ * Сначала каждая сессия получает свой минимум — столько пакетов, чтобы отправить хотя бы одну точку
+ * всем получателям; иначе общая карта с долей меньше числа зрителей не отправляла бы ничего.
+ * Затем каждая получает равную долю остатка (но не больше, чем ей нужно),
+ * а то, что осталось, раздаётся по кругу, начиная с меняющейся от тика к тику сессии.
+ * Минимумы выдаются и сверх лимита: лимит может быть превышен не больше чем на сумму минимумов.
+ */
+final class ParticleBudget {
+
+    private ParticleBudget() {
+    }
+
+    /**
+     * Заполняет grants[0..count) числом пакетов, которое сессия может отправить в этом тике
+     *
+     * @param budget   общий лимит пакетов на тик
+     * @param demands  сколько пакетов хочет отправить каждая сессия
+     * @param minimums сколько пакетов сессия получает в любом случае (если ей столько нужно)
+     * @param grants   выделенное количество (результат)
+     * @param count    число сессий
+     * @param start    с какой сессии раздавать остаток (для справедливости между тиками)
+     */
+    static void allocate(int budget, int[] demands, int[] minimums, int[] grants, int count, int start) {
+        if (count == 0) {
+            return;
+        }
+        long remaining = budget;
+        for (int i = 0; i < count; i++) {
+            grants[i] = Math.min(demands[i], minimums[i]);
+            remaining -= grants[i];
+        }
+        final long share = Math.max(0, remaining) / count;
+        for (int i = 0; i < count; i++) {
+            final int extra = (int) Math.min(demands[i] - grants[i], share);
+            grants[i] += extra;
+            remaining -= extra;
+        }
+        // Остаток от сессий, которым хватило меньше доли, и от целочисленного деления
+        for (int step = 0; step < count && remaining > 0; step++) {
+            final int i = (start + step) % count;
+            final int extra = (int) Math.min(demands[i] - grants[i], remaining);
+            grants[i] += extra;
+            remaining -= extra;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.util.Vector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Карта из частиц DUST: буфер точек отправляется по частям каждый тик
+ * в пределах доли общего лимита пакетов (точка x получатель).
+ * Каждый тик квадраты сетки отсечения буфера проверяются против взгляда и дистанции получателей:
+ * точки квадрата уходят только тем, кто может его увидеть.
+ * <p>
+ * Буфер строится в пуле по копии карты высот и подменяется в тике, когда готов;
+ * до этого отправляется прежний. Буфер карты следования из точек строится сразу:
+ * дальше он сдвигается по колонкам вместе с живой картой высот.
+ */
+final class ParticleRenderer implements HologramRenderer {
+    private final Function<HologramSession, Supplier<DisplayBuffer>> bufferTask;
+    private final Executor executor;
+    private final Logger logger;
+    private double maxDistance;
+    private double viewAngle;
+    // Получатели, которым виден каждый квадрат сетки отсечения (пересчитывается каждый тик)
+    private final List<List<Player>> visibleReceivers = new ArrayList<>(DisplayBuffer.CULL_BUCKETS);
+    private DisplayBuffer buffer;
+    // Буфер, построенный в пуле и ещё не подменённый; номер построения отбрасывает устаревшие результаты
+    private final AtomicReference<Built> built = new AtomicReference<>();
+    private int generation;
+
+    // Позиция в буфере точек, с которой продолжится отправка в следующем тике
+    private int cursor;
+
+    /**
+     * @param bufferTask  готовит на главном потоке задачу построения буфера точек по карте высот сессии
+     *                    в её текущем режиме; задача не трогает сессию и может выполняться в пуле
+     * @param executor    где строятся буферы
+     * @param maxDistance дальше этого расстояния от глаз точки не отправляются
+     * @param viewAngle   половина угла обзора в градусах
+     */
+    ParticleRenderer(Function<HologramSession, Supplier<DisplayBuffer>> bufferTask, Executor executor, Logger logger,
+                     double maxDistance, double viewAngle) {
+        this.bufferTask = bufferTask;
+        this.executor = executor;
+        this.logger = logger;
+        this.maxDistance = maxDistance;
+        this.viewAngle = Math.toRadians(viewAngle);
+        for (int bucket = 0; bucket < DisplayBuffer.CULL_BUCKETS; bucket++) {
+            visibleReceivers.add(new ArrayList<>());
+        }
+    }
+
+    @Override
+    public void applySettings(Settings settings) {
+        maxDistance = settings.particleRenderDistance();
+        viewAngle = Math.toRadians(settings.particleViewAngle());
+    }
+
+    @Override
+    public boolean buildsInBackground() {
+        return true;
+    }
+
+    /**
+     * cursor не сбрасывается: иначе при частых обновлениях хвост буфера не успевал бы отправиться
+     */
+    @Override
+    public void update(HologramSession session) {
+        final Supplier<DisplayBuffer> task = bufferTask.apply(session);
+        final int current = ++generation;
+        if (session.followsByColumns()) {
+            buffer = task.get();
+            return;
+        }
+        CompletableFuture.supplyAsync(task, executor).whenComplete((result, error) -> {
+            if (error != null) {
+                logger.warning("Ошибка построения карты из частиц: " + error.getMessage());
+            } else {
+                // Построения могут завершиться не по порядку: остаётся самое новое
+                built.accumulateAndGet(new Built(current, result),
+                        (previous, next) -> previous == null || next.generation() > previous.generation() ? next : previous);
+            }
+        });
+    }
+
+    @Override
+    public void publish() {
+        final Built result = built.getAndSet(null);
+        if (result != null && result.generation() == generation) {
+            buffer = result.buffer();
+        }
+    }
+
+    @Override
+    public int particleDemand() {
+        return buffer != null ? buffer.pointsPerTick() : 0;
+    }
+
+    /**
+     * Раскладывает получателей по квадратам сетки отсечения и считает пакеты одной полосы:
+     * точки квадрата уходят столько раз, сколько получателей его видят
+     */
+    @Override
+    public int packetDemand(HologramSession session) {
+        cull(session.receivers);
+        long packets = 0;
+        for (int bucket = 0; bucket < DisplayBuffer.CULL_BUCKETS; bucket++) {
+            packets += (long) buffer.bucketPoints(bucket) * visibleReceivers.get(bucket).size();
+        }
+        final int stripes = buffer.stripes();
+        return (int) Math.min(Integer.MAX_VALUE, (packets + stripes - 1) / stripes);
+    }
+
+    /**
+     * Использует отсечение из {@link #packetDemand}, вызванного в этом тике.
+     * Точки, не вошедшие в лимит тика, отправятся в следующих тиках с того же места.
+     * Каждая точка готовится один раз и уходит всем видящим её получателям одним вызовом.
+     * Отсечённые точки лимит не тратят, но за тик обходится не больше одной полосы.
+     */
+    @Override
+    public int render(HologramSession session, int packets) {
+        final int pointCount = buffer.pointCount();
+        final int stripe = buffer.pointsPerTick();
+        final World world = session.displayLocation().getWorld();
+        int point = cursor;
+        int sentPackets = 0;
+        // Пустые слоты (буфер следования) пропускаются, но не больше одного обхода буфера за тик
+        for (int walked = 0, visited = 0; walked < stripe && visited < pointCount; ) {
+            if (point >= pointCount) {
+                point = 0;
+            }
+            if (!buffer.isPresent(point)) {
+                point++;
+                visited++;
+                continue;
+            }
+            final List<Player> viewers = visibleReceivers.get(buffer.bucket(point));
+            if (viewers.isEmpty()) {
+                // Весь участок невидимого квадрата пропускается разом
+                final int skipped = Math.min(buffer.runEnd(point) - point, stripe - walked);
+                point += skipped;
+                visited += skipped;
+                walked += skipped;
+                continue;
+            }
+            // Движок выделяет не меньше пакетов, чем получателей, поэтому хотя бы одна точка за тик уходит
+            if (sentPackets + viewers.size() > packets) {
+                break;
+            }
+            world.spawnParticle(Particle.DUST, viewers, null, buffer.x(point), buffer.y(point), buffer.z(point),
+                    1, 0, 0, 0, 0, buffer.dustOptions(point), false);
+            sentPackets += viewers.size();
+            walked++;
+            point++;
+            visited++;
+        }
+        cursor = point;
+        return sentPackets;
+    }
+
+    /**
+     * Раскладывает получателей по квадратам, которые попадают в их конус взгляда и дистанцию
+     */
+    private void cull(List<Player> receivers) {
+        for (List<Player> viewers : visibleReceivers) {
+            viewers.clear();
+        }
+        final double centerY = buffer.bucketY();
+        final double radius = buffer.bucketRadius();
+        for (Player receiver : receivers) {
+            final Location eye = receiver.getEyeLocation();
+            final Vector direction = eye.getDirection();
+            for (int bucket = 0; bucket < DisplayBuffer.CULL_BUCKETS; bucket++) {
+                if (sees(eye, direction, buffer.bucketX(bucket), centerY, buffer.bucketZ(bucket), radius)) {
+                    visibleReceivers.get(bucket).add(receiver);
+                }
+            }
+        }
+    }
+
+    /**
+     * Пересекается ли сфера с конусом взгляда, ограниченным maxDistance
+     */
+    private boolean sees(Location eye, Vector direction, double x, double y, double z, double radius) {
+        final double dx = x - eye.getX();
+        final double dy = y - eye.getY();
+        final double dz = z - eye.getZ();
+        final double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (distance <= radius) {
+            return true;
+        }
+        if (distance - radius > maxDistance) {
+            return false;
+        }
+        final double cos = (dx * direction.getX() + dy * direction.getY() + dz * direction.getZ()) / distance;
+        return Math.acos(Math.max(-1, Math.min(1, cos))) <= viewAngle + Math.asin(radius / distance);
+    }
+
+    @Override
+    public boolean followsIncrementally() {
+        return buffer != null && buffer.isFollowing();
+    }
+
+    @Override
+    public void updateColumn(HeightField heightField, int index) {
+        buffer.updateColumn(heightField, index);
+    }
+
+    @Override
+    public void moveTo(HeightField heightField, Location displayLocation) {
+        buffer.moveTo(heightField, displayLocation);
+    }
+
+    @Override
+    public void close() {
+        generation++;
+        buffer = null;
+        built.set(null);
+    }
+
+    private record Built(int generation, DisplayBuffer buffer) {}
+}
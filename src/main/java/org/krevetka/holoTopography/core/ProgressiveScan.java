@@ -0,0 +1,235 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Сканирование большой карты по частям от грубого к точному.
+ * Грубые проходы берут каждую 8-ю, затем 4-ю и 2-ю колонку (по сетке мира) и закрашивают её значением
+ * весь квадрат шага, поэтому карта видна сразу после первого прохода и уточняется следующими.
+ * Последний проход наносит чанки целиком: из кэша и с диска сразу, загруженные — через пул сканера,
+ * незагруженные — через подгрузку. Пересканирование начинается сразу с последнего прохода и снимает
+ * все загруженные чанки заново, обновляя ими кэш и диск. Каждый тик проходы продвигаются только в пределах бюджета времени.
+ * <p>
+ * Все методы вызываются с главного потока.
+ */
+final class ProgressiveScan {
+    private static final int[] COARSE_STEPS = {8, 4, 2};
+    // Как часто сверяться с часами: чтение System.nanoTime на каждой колонке дороже самой колонки
+    private static final int CLOCK_CHECK_INTERVAL = 32;
+
+    private final HologramSession session;
+    private final World world;
+    private final HeightField heightField;
+    private final TerrainScanner scanner;
+    private final ChunkPrefetcher prefetcher;
+    private final int radius;
+    private final double radiusSquared;
+    // Пересканирование: проход по чанкам снимает загруженные чанки заново
+    private final boolean refresh;
+
+    // Текущий проход: индекс в COARSE_STEPS, COARSE_STEPS.length — проход по чанкам
+    private int pass;
+    // Позиция в проходе: смещение строки и столбца грубого прохода или номер чанка точного
+    private int cursorX;
+    private int cursorZ;
+    private int chunkCursor;
+    private List<Long> chunks;
+    private final List<Long> missing = new ArrayList<>();
+    private final long startedAt = System.currentTimeMillis();
+    // Откуда взялись чанки точного прохода (для метрик)
+    private int chunksStored;
+    private int chunksSnapshotted;
+    private int chunksMissing;
+
+    /**
+     * @param coarse начинать с грубых проходов (первое сканирование) или сразу с прохода по чанкам (пересканирование)
+     * @param prefetcher подгрузка чанков или null, если она отключена
+     */
+    ProgressiveScan(HologramSession session, World world, HeightField heightField, TerrainScanner scanner,
+                    ChunkPrefetcher prefetcher, boolean coarse) {
+        this.session = session;
+        this.world = world;
+        this.heightField = heightField;
+        this.scanner = scanner;
+        this.prefetcher = prefetcher;
+        this.radius = heightField.radius();
+        this.radiusSquared = session.renderDistance() * session.renderDistance();
+        this.refresh = !coarse;
+        this.pass = coarse ? 0 : COARSE_STEPS.length;
+        resetCursor();
+    }
+
+    HeightField heightField() {
+        return heightField;
+    }
+
+    boolean isDone() {
+        return pass > COARSE_STEPS.length;
+    }
+
+    long startedAt() {
+        return startedAt;
+    }
+
+    int chunksStored() {
+        return chunksStored;
+    }
+
+    int chunksSnapshotted() {
+        return chunksSnapshotted;
+    }
+
+    int chunksMissing() {
+        return chunksMissing;
+    }
+
+    /**
+     * Продвигает сканирование до deadline (System.nanoTime).
+     * Возвращает true, если за этот вызов завершился хотя бы один проход.
+     */
+    boolean advance(long deadline) {
+        boolean passFinished = false;
+        while (!isDone() && System.nanoTime() < deadline) {
+            final boolean finished = pass < COARSE_STEPS.length ? advanceCoarse(deadline) : advanceChunks(deadline);
+            if (finished) {
+                pass++;
+                resetCursor();
+                passFinished = true;
+            }
+        }
+        if (prefetcher != null && !missing.isEmpty()) {
+            prefetcher.request(session, world, missing);
+            missing.clear();
+        }
+        return passFinished;
+    }
+
+    private void resetCursor() {
+        final int step = pass < COARSE_STEPS.length ? COARSE_STEPS[pass] : 1;
+        // Первая колонка сетки шага внутри карты
+        cursorX = Math.floorMod(-(heightField.centerX() - radius), step) - radius;
+        cursorZ = Math.floorMod(-(heightField.centerZ() - radius), step) - radius;
+        chunkCursor = 0;
+        chunks = null;
+    }
+
+    /**
+     * Грубый проход: колонки, кратные шагу и не взятые предыдущим проходом.
+     * Возвращает true, когда проход закончен.
+     */
+    private boolean advanceCoarse(long deadline) {
+        final int step = COARSE_STEPS[pass];
+        final int previousStep = pass > 0 ? COARSE_STEPS[pass - 1] : 0;
+        final int rowStart = Math.floorMod(-(heightField.centerZ() - radius), step) - radius;
+        int sampled = 0;
+        for (; cursorX <= radius; cursorX += step, cursorZ = rowStart) {
+            for (; cursorZ <= radius; cursorZ += step) {
+                if (++sampled % CLOCK_CHECK_INTERVAL == 0 && System.nanoTime() >= deadline) {
+                    return false;
+                }
+                final int x = heightField.centerX() + cursorX;
+                final int z = heightField.centerZ() + cursorZ;
+                if (previousStep != 0 && Math.floorMod(x, previousStep) == 0 && Math.floorMod(z, previousStep) == 0) {
+                    continue;
+                }
+                sample(x, z, step);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Берёт высоту и материал колонки и закрашивает ими квадрат step x step.
+     * Колонка незагруженного чанка пропускается: её заполнит проход по чанкам.
+     */
+    private void sample(int x, int z, int step) {
+        final int worldY;
+        final Material material;
+        final ChunkColumns columns = scanner.storedAt(world, x >> 4, z >> 4);
+        if (columns != null) {
+            worldY = columns.height(x & 15, z & 15);
+            material = columns.material(x & 15, z & 15);
+        } else if (world.isChunkLoaded(x >> 4, z >> 4)) {
+            // Высота по карте высот чанка: без снимка всего чанка
+            final int highestY = world.getHighestBlockYAt(x, z);
+            worldY = Math.max(highestY, world.getMinHeight());
+            material = highestY < world.getMinHeight() ? Material.AIR : world.getBlockAt(x, worldY, z).getType();
+        } else {
+            return;
+        }
+        final int offsetX = x - heightField.centerX();
+        final int offsetZ = z - heightField.centerZ();
+        for (int dx = 0; dx < step; dx++) {
+            for (int dz = 0; dz < step; dz++) {
+                final int cellX = offsetX + dx;
+                final int cellZ = offsetZ + dz;
+                final int index = heightField.indexOf(cellX, cellZ);
+                if (index >= 0 && cellX * cellX + cellZ * cellZ <= radiusSquared) {
+                    heightField.set(index, worldY, material);
+                }
+            }
+        }
+    }
+
+    /**
+     * Точный проход: чанки карты от центра к краям.
+     * Возвращает true, когда все чанки нанесены или отправлены на обработку.
+     */
+    private boolean advanceChunks(long deadline) {
+        if (chunks == null) {
+            chunks = chunksByDistance();
+        }
+        while (chunkCursor < chunks.size()) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            final long key = chunks.get(chunkCursor++);
+            final int chunkX = (int) (key >> 32);
+            final int chunkZ = (int) key;
+            final boolean loaded = world.isChunkLoaded(chunkX, chunkZ);
+            // Кэш и диск не видят изменений без событий: при пересканировании загруженный чанк снимается заново.
+            // Тайлу с диска загруженного чанка доверяют только грубые проходы, здесь он перезаписывается снимком
+            final ChunkColumns columns = loaded
+                    ? (refresh ? null : scanner.cachedAt(world, chunkX, chunkZ))
+                    : scanner.storedAt(world, chunkX, chunkZ);
+            if (columns != null) {
+                heightField.fill(columns, radiusSquared);
+                session.displayStale = true;
+                chunksStored++;
+            } else if (loaded) {
+                // Снимок — на главном потоке, разбор колонок — в пуле; результат нанесёт движок
+                scanner.process(world, world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(true, false, false))
+                        .thenAccept(session.arrivedChunks::add);
+                chunksSnapshotted++;
+            } else {
+                missing.add(key);
+                chunksMissing++;
+            }
+        }
+        return true;
+    }
+
+    private List<Long> chunksByDistance() {
+        final int centerX = heightField.centerX();
+        final int centerZ = heightField.centerZ();
+        final List<Long> keys = new ArrayList<>();
+        for (int chunkX = (centerX - radius) >> 4; chunkX <= (centerX + radius) >> 4; chunkX++) {
+            for (int chunkZ = (centerZ - radius) >> 4; chunkZ <= (centerZ + radius) >> 4; chunkZ++) {
+                keys.add(ColumnCache.chunkKey(chunkX, chunkZ));
+            }
+        }
+        final int centerChunkX = centerX >> 4;
+        final int centerChunkZ = centerZ >> 4;
+        keys.sort(Comparator.comparingLong(key -> {
+            final long dx = (int) (key >> 32) - centerChunkX;
+            final long dz = (int) (key & 0xFFFFFFFFL) - centerChunkZ;
+            return dx * dx + dz * dz;
+        }));
+        return keys;
+    }
+}
@@ -0,0 +1,109 @@
+package org.krevetka.holoTopography.core;
+
+import java.util.function.DoubleSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Адаптивное качество: множитель от minQuality до 1, на который движок умножает
+ * плотность отправки частиц, бюджет сканирования больших карт и частоту полных пересканирований.
+ * <p>
+ * Раз в секунду сравнивает среднее время тика сервера (MSPT) и собственное время движка с порогами.
+ * Перегрузка снижает качество сразу и заметно, восстановление идёт малыми шагами и только
+ * после паузы; между порогами качество не меняется. За счёт этого разрыва (гистерезиса)
+ * качество не колеблется вокруг одного порога.
+ * <p>
+ * Все методы вызываются с главного потока.
+ */
+final class QualityController {
+    private static final int EVALUATION_INTERVAL_TICKS = 20;
+    // После снижения качество не растёт столько тиков: нагрузке нужно время, чтобы спасть
+    private static final int RECOVERY_DELAY_TICKS = 200;
+    private static final double DECREASE_FACTOR = 0.7;
+    private static final double INCREASE_STEP = 0.05;
+
+    private final DoubleSupplier msptSource;
+    private boolean enabled;
+    private double msptHigh;
+    private double msptLow;
+    private long engineBudgetNanos;
+    private double minQuality;
+    private Logger logger;
+
+    private double quality = 1;
+    private long engineNanos;
+    private int sampledTicks;
+    private long ticks;
+    private long recoveryTick;
+
+    /**
+     * @param msptSource   среднее время тика сервера в миллисекундах
+     * @param msptHigh     выше — качество снижается
+     * @param msptLow      ниже (и при запасе по времени движка) — восстанавливается
+     * @param engineBudget собственное время движка за тик (мс), выше которого качество снижается
+     * @param logger       куда сообщать о смене качества или null
+     */
+    QualityController(boolean enabled, DoubleSupplier msptSource, double msptHigh, double msptLow, double engineBudget,
+                      double minQuality, Logger logger) {
+        this.msptSource = msptSource;
+        configure(enabled, msptHigh, msptLow, engineBudget, minQuality, logger);
+    }
+
+    /**
+     * Меняет пороги на ходу (перезагрузка настроек). Накопленное качество сохраняется
+     * в новых пределах, выключение возвращает полное качество.
+     */
+    void configure(boolean enabled, double msptHigh, double msptLow, double engineBudget, double minQuality, Logger logger) {
+        this.enabled = enabled;
+        this.msptHigh = msptHigh;
+        this.msptLow = Math.min(msptLow, msptHigh);
+        this.engineBudgetNanos = (long) (engineBudget * 1_000_000L);
+        this.minQuality = Math.max(0.05, Math.min(1, minQuality));
+        this.logger = logger;
+        quality = enabled ? Math.max(this.minQuality, quality) : 1;
+    }
+
+    /**
+     * Текущий множитель качества
+     */
+    double quality() {
+        return quality;
+    }
+
+    /**
+     * Учитывает время одного тика движка и раз в EVALUATION_INTERVAL_TICKS пересматривает качество
+     */
+    void recordTick(long engineTickNanos) {
+        if (!enabled) {
+            return;
+        }
+        ticks++;
+        engineNanos += engineTickNanos;
+        if (++sampledTicks < EVALUATION_INTERVAL_TICKS) {
+            return;
+        }
+        final long averageEngineNanos = engineNanos / sampledTicks;
+        engineNanos = 0;
+        sampledTicks = 0;
+        final double mspt = msptSource.getAsDouble();
+
+        final double previous = quality;
+        if (mspt > msptHigh || averageEngineNanos > engineBudgetNanos) {
+            quality = Math.max(minQuality, quality * DECREASE_FACTOR);
+            recoveryTick = ticks + RECOVERY_DELAY_TICKS;
+        } else if (quality < 1 && ticks >= recoveryTick
+                && mspt < msptLow && averageEngineNanos < engineBudgetNanos / 2) {
+            quality = Math.min(1, quality + INCREASE_STEP);
+        }
+        if (logger != null && quality != previous) {
+            logger.info(String.format("[QUALITY] %.2f -> %.2f (MSPT %.1f, движок %.2f мс)",
+                    previous, quality, mspt, averageEngineNanos / 1_000_000.0));
+        }
+    }
+
+    /**
+     * Число с учётом качества, но не меньше 1 (чтобы карта не пропадала совсем)
+     */
+    int scale(int value) {
+        return value <= 0 ? value : Math.max(1, (int) Math.ceil(value * quality));
+    }
+}
@@ -0,0 +1,15 @@
+package org.krevetka.holoTopography.core;
+
+/**
+ * Способ отображения карты высот
+ */
+public enum RenderMode {
+    /** Частица на каждую колонку */
+    POINTS,
+    /** Только изолинии рельефа */
+    CONTOURS,
+    /** Макет из блоков (BlockDisplay), не расходует частицы */
+    BLOCKS,
+    /** Вид сверху на предмете-карте, почти бесплатен для сервера */
+    MAP
+}
@@ -0,0 +1,100 @@
+package org.krevetka.holoTopography.core;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Очередь полных сканирований.
+ * У сессии не больше одного сканирования в работе; запросы, пришедшие во время него,
+ * схлопываются в одно отложенное. Одновременно выполняется не больше maxConcurrent
+ * сканирований на все сессии, остальные ждут в очереди — по одному месту на сессию,
+ * поэтому очередь не растёт под нагрузкой.
+ * <p>
+ * Все методы вызываются с главного потока.
+ */
+final class ScanScheduler {
+    private final int maxConcurrent;
+    private final Consumer<HologramSession> launcher;
+    private final ArrayDeque<HologramSession> queue = new ArrayDeque<>();
+    private int running;
+
+    /**
+     * @param launcher запускает сканирование сессии; по его завершении нужно вызвать {@link #finished}
+     */
+    ScanScheduler(int maxConcurrent, Consumer<HologramSession> launcher) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.launcher = launcher;
+    }
+
+    /**
+     * Запрашивает сканирование сессии
+     */
+    void request(HologramSession session) {
+        if (session.isClosed()) {
+            return;
+        }
+        if (session.scanInFlight) {
+            session.scanPending = true;
+            return;
+        }
+        if (!session.scanQueued) {
+            session.scanQueued = true;
+            queue.add(session);
+        }
+    }
+
+    /**
+     * Запускает ожидающие сканирования, пока есть свободные места (каждый тик)
+     */
+    void tick() {
+        HologramSession session;
+        while (running < maxConcurrent && (session = queue.poll()) != null) {
+            session.scanQueued = false;
+            if (session.isClosed()) {
+                continue;
+            }
+            running++;
+            session.scanInFlight = true;
+            launcher.accept(session);
+        }
+    }
+
+    /**
+     * Сканирование сессии завершилось (успешно, с ошибкой или было отменено).
+     * Вызывается для каждого запущенного сканирования ровно один раз, иначе место не освободится.
+     * После выключения плагина вызывается из потока сканера: тика, который мог бы вмешаться, уже нет.
+     */
+    void finished(HologramSession session) {
+        running--;
+        session.scanInFlight = false;
+        if (session.scanPending) {
+            session.scanPending = false;
+            request(session);
+        }
+    }
+
+    /**
+     * Убирает сессию из очереди. Идущее сканирование прервётся само: оно проверяет {@link HologramSession#isClosed()}.
+     */
+    void cancel(HologramSession session) {
+        if (session.scanQueued) {
+            queue.remove(session);
+            session.scanQueued = false;
+        }
+        session.scanPending = false;
+    }
+
+    /**
+     * Число выполняющихся сканирований
+     */
+    int running() {
+        return running;
+    }
+
+    /**
+     * Число сканирований, ожидающих свободного места
+     */
+    int backlog() {
+        return queue.size();
+    }
+}
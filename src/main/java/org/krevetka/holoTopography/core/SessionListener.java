@@ -0,0 +1,44 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.ChatColor;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Завершает сессии игроков, которые вышли с сервера или сменили мир,
+ * выводит вышедших игроков из общих карт и убирает у входящих и выходящих предметы карт
+ */
+final class SessionListener implements Listener {
+    private final Engine engine;
+
+    SessionListener(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Предметы карт, оставшиеся с прошлой игры (например, после падения сервера), уже ничего не показывают
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        engine.removeMapItems(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        engine.stopSession(event.getPlayer().getUniqueId());
+        engine.leaveSharedSession(event.getPlayer().getUniqueId());
+        // После остановки сессии: её рендерер сам забирает свой предмет, остаются чужие общие карты
+        engine.removeMapItems(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        if (engine.stopSession(event.getPlayer().getUniqueId())) {
+            event.getPlayer().sendMessage(ChatColor.YELLOW + "Топографическая карта остановлена: вы покинули мир карты.");
+        }
+    }
+}
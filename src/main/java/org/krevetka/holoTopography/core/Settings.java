@@ -0,0 +1,326 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * Неизменяемый снимок настроек из config.yml: значения проверены и приведены к допустимым
+ * пределам, производные величины (палитра, число полос, общий лимит частиц) посчитаны один раз.
+ * Собирается при включении плагина и при каждом изменении конфигурации, движок подменяет
+ * снимок целиком, и активные карты применяют его в ближайшем тике.
+ */
+public final class Settings {
+    // Размеры карт
+    private final double defaultSize;
+    private final double maxSize;
+    private final double sharedViewRadius;
+
+    // Отображение
+    private final int updateInterval;
+    private final int particlesPerChunk;
+    private final double particleSize;
+    private final int contourInterval;
+    private final double contourSpacing;
+    private final int maxDisplayEntities;
+    private final double particleRenderDistance;
+    private final double particleViewAngle;
+    private final int particleBudget;
+    private final int renderStripes;
+    private final BlockPalette palette;
+
+    // Сканирование
+    private final long fullRescanInterval;
+    private final int progressiveRadius;
+    private final double progressiveBudget;
+    private final int maxConcurrentScans;
+    private final int columnCacheChunks;
+    private final boolean tileStore;
+    private final long tileMaxAge;
+    private final int tileOpenRegions;
+    private final boolean prefetchChunks;
+    private final int prefetchConcurrency;
+    private final boolean prefetchGenerate;
+
+    // Адаптивное качество
+    private final boolean adaptiveQuality;
+    private final double msptHigh;
+    private final double msptLow;
+    private final double engineTickBudget;
+    private final double minQuality;
+
+    // Отладка
+    private final boolean debug;
+    private final String statsDump;
+    private final long statsDumpInterval;
+
+    private Settings(ConfigurationSection config, Logger logger) {
+        this.maxSize = number(config, logger, "maxSize", 300.0, 1, 1024);
+        this.defaultSize = number(config, logger, "defaultSize", 30.0, 1, maxSize);
+        this.sharedViewRadius = number(config, logger, "sharedViewRadius", 32.0, 0, 256);
+
+        this.updateInterval = integer(config, logger, "updateInterval", 5, 1, 100);
+        this.particlesPerChunk = integer(config, logger, "particlesPerChunk", 25, 1, 100);
+        this.particleSize = number(config, logger, "particleSize", 1.2, 0.5, 2.0);
+        this.contourInterval = integer(config, logger, "contourInterval", 4, 1, 64);
+        this.contourSpacing = number(config, logger, "contourSpacing", 1.0, 0.25, 16);
+        this.maxDisplayEntities = integer(config, logger, "maxDisplayEntities", 1024, 1, 16384);
+        this.particleRenderDistance = number(config, logger, "particleRenderDistance", 80.0, 1, 512);
+        this.particleViewAngle = number(config, logger, "particleViewAngle", 70.0, 1, 180);
+        // limitParticles: false снимает общий лимит частиц
+        this.particleBudget = config.getBoolean("limitParticles", true)
+                ? integer(config, logger, "particleBudgetPerTick", 6000, 1, Integer.MAX_VALUE)
+                : Integer.MAX_VALUE;
+        this.renderStripes = Engine.computeRenderStripes(updateInterval, particleSize);
+        this.palette = BlockPalette.load(config.getConfigurationSection("colors"), logger);
+
+        this.fullRescanInterval = integer(config, logger, "fullRescanInterval", 60, 1, Integer.MAX_VALUE);
+        this.progressiveRadius = integer(config, logger, "progressiveRadius", 64, 0, 1024);
+        this.progressiveBudget = number(config, logger, "progressiveBudget", 2.0, 0.1, 50);
+        this.maxConcurrentScans = integer(config, logger, "maxConcurrentScans", 2, 1, 64);
+        this.columnCacheChunks = integer(config, logger, "columnCacheChunks", 4096, 1, 1 << 20);
+        this.tileStore = config.getBoolean("tileStore", true);
+        this.tileMaxAge = integer(config, logger, "tileMaxAge", 86400, 0, Integer.MAX_VALUE);
+        this.tileOpenRegions = integer(config, logger, "tileOpenRegions", 64, 1, 4096);
+        this.prefetchChunks = config.getBoolean("prefetchChunks", true);
+        this.prefetchConcurrency = integer(config, logger, "prefetchConcurrency", 4, 1, 64);
+        this.prefetchGenerate = config.getBoolean("prefetchGenerate", false);
+
+        this.adaptiveQuality = config.getBoolean("adaptiveQuality", true);
+        this.msptHigh = number(config, logger, "msptHigh", 45.0, 1, 1000);
+        this.msptLow = number(config, logger, "msptLow", 35.0, 0, msptHigh);
+        this.engineTickBudget = number(config, logger, "engineTickBudget", 5.0, 0.1, 1000);
+        this.minQuality = number(config, logger, "minQuality", 0.25, 0.05, 1);
+
+        this.debug = config.getBoolean("debug", false);
+        String statsDump = config.getString("statsDump", "none").toLowerCase(Locale.ROOT);
+        if (!statsDump.equals("none") && !statsDump.equals("csv") && !statsDump.equals("json")) {
+            logger.warning("Некорректное значение statsDump в config.yml: " + statsDump + ", используется none");
+            statsDump = "none";
+        }
+        this.statsDump = statsDump;
+        this.statsDumpInterval = integer(config, logger, "statsDumpInterval", 60, 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Собирает снимок из конфигурации. Вызывать с главного потока (палитра читает реестр материалов).
+     * Значения вне допустимых пределов приводятся к ближайшей границе с предупреждением в лог.
+     */
+    public static Settings load(ConfigurationSection config, Logger logger) {
+        return new Settings(config, logger);
+    }
+
+    private static double number(ConfigurationSection config, Logger logger, String key, double fallback, double min, double max) {
+        final double value = config.getDouble(key, fallback);
+        if (value >= min && value <= max) {
+            return value;
+        }
+        final double clamped = Double.isNaN(value) ? fallback : Math.max(min, Math.min(max, value));
+        logger.warning("Некорректное значение " + key + " в config.yml: " + value
+                + " (допустимо от " + min + " до " + max + "), используется " + clamped);
+        return clamped;
+    }
+
+    private static int integer(ConfigurationSection config, Logger logger, String key, int fallback, int min, int max) {
+        final long value = config.getLong(key, fallback);
+        if (value >= min && value <= max) {
+            return (int) value;
+        }
+        final int clamped = (int) Math.max(min, Math.min(max, value));
+        logger.warning("Некорректное значение " + key + " в config.yml: " + value
+                + " (допустимо от " + min + " до " + max + "), используется " + clamped);
+        return clamped;
+    }
+
+    /**
+     * Настройки, которые движок применяет только при запуске (кэш, хранилище, подгрузка, пул сканирований):
+     * возвращает ключи тех из них, что отличаются от previous
+     */
+    List<String> restartRequired(Settings previous) {
+        final List<String> keys = new ArrayList<>();
+        if (maxConcurrentScans != previous.maxConcurrentScans) {
+            keys.add("maxConcurrentScans");
+        }
+        if (columnCacheChunks != previous.columnCacheChunks) {
+            keys.add("columnCacheChunks");
+        }
+        if (tileStore != previous.tileStore) {
+            keys.add("tileStore");
+        }
+        if (tileMaxAge != previous.tileMaxAge) {
+            keys.add("tileMaxAge");
+        }
+        if (tileOpenRegions != previous.tileOpenRegions) {
+            keys.add("tileOpenRegions");
+        }
+        if (prefetchChunks != previous.prefetchChunks) {
+            keys.add("prefetchChunks");
+        }
+        if (prefetchConcurrency != previous.prefetchConcurrency) {
+            keys.add("prefetchConcurrency");
+        }
+        if (prefetchGenerate != previous.prefetchGenerate) {
+            keys.add("prefetchGenerate");
+        }
+        return keys;
+    }
+
+    /**
+     * Меняется ли от перехода к next то, что видно на картах: тогда их отображение перестраивается
+     */
+    boolean changesDisplay(Settings next) {
+        return updateInterval != next.updateInterval
+                || particlesPerChunk != next.particlesPerChunk
+                || particleSize != next.particleSize
+                || contourInterval != next.contourInterval
+                || contourSpacing != next.contourSpacing
+                || maxDisplayEntities != next.maxDisplayEntities
+                || particleRenderDistance != next.particleRenderDistance
+                || particleViewAngle != next.particleViewAngle
+                || !Objects.equals(palette, next.palette);
+    }
+
+    public double defaultSize() {
+        return defaultSize;
+    }
+
+    public double maxSize() {
+        return maxSize;
+    }
+
+    public double sharedViewRadius() {
+        return sharedViewRadius;
+    }
+
+    public int particlesPerChunk() {
+        return particlesPerChunk;
+    }
+
+    public double particleSize() {
+        return particleSize;
+    }
+
+    int contourInterval() {
+        return contourInterval;
+    }
+
+    double contourSpacing() {
+        return contourSpacing;
+    }
+
+    int maxDisplayEntities() {
+        return maxDisplayEntities;
+    }
+
+    double particleRenderDistance() {
+        return particleRenderDistance;
+    }
+
+    double particleViewAngle() {
+        return particleViewAngle;
+    }
+
+    /**
+     * Общий лимит пакетов частиц (точка x получатель) за тик на все карты (Integer.MAX_VALUE — без лимита)
+     */
+    int particleBudget() {
+        return particleBudget;
+    }
+
+    /**
+     * Число полос чередования буфера точек, см. {@link Engine#computeRenderStripes}
+     */
+    int renderStripes() {
+        return renderStripes;
+    }
+
+    BlockPalette palette() {
+        return palette;
+    }
+
+    /**
+     * Интервал страховочного полного пересканирования в тиках
+     */
+    long fullRescanIntervalTicks() {
+        return fullRescanInterval * 20L;
+    }
+
+    int progressiveRadius() {
+        return progressiveRadius;
+    }
+
+    long progressiveBudgetNanos() {
+        return (long) (progressiveBudget * 1_000_000L);
+    }
+
+    int maxConcurrentScans() {
+        return maxConcurrentScans;
+    }
+
+    int columnCacheChunks() {
+        return columnCacheChunks;
+    }
+
+    boolean tileStore() {
+        return tileStore;
+    }
+
+    long tileMaxAge() {
+        return tileMaxAge;
+    }
+
+    int tileOpenRegions() {
+        return tileOpenRegions;
+    }
+
+    boolean prefetchChunks() {
+        return prefetchChunks;
+    }
+
+    int prefetchConcurrency() {
+        return prefetchConcurrency;
+    }
+
+    boolean prefetchGenerate() {
+        return prefetchGenerate;
+    }
+
+    boolean adaptiveQuality() {
+        return adaptiveQuality;
+    }
+
+    double msptHigh() {
+        return msptHigh;
+    }
+
+    double msptLow() {
+        return msptLow;
+    }
+
+    double engineTickBudget() {
+        return engineTickBudget;
+    }
+
+    double minQuality() {
+        return minQuality;
+    }
+
+    boolean debug() {
+        return debug;
+    }
+
+    /**
+     * Периодическая выгрузка метрик: none, csv или json
+     */
+    String statsDump() {
+        return statsDump;
+    }
+
+    long statsDumpIntervalTicks() {
+        return statsDumpInterval * 20L;
+    }
+}
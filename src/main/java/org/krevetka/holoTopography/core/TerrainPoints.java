@@ -0,0 +1,65 @@
+package org.krevetka.holoTopography.core;
+
+import java.util.Arrays;
+
+/**
+ * Набор точек рельефа для отображения: координаты в системе смещений карты высот
+ * (блоки относительно центра карты) и индекс материала в палитре карты высот
+ */
+final class TerrainPoints {
+    private double[] coordinates;
+    private short[] paletteIndices;
+    private int count;
+
+    TerrainPoints(int capacity) {
+        capacity = Math.max(16, capacity);
+        this.coordinates = new double[capacity * 3];
+        this.paletteIndices = new short[capacity];
+    }
+
+    /**
+     * По одной точке на каждую отсканированную колонку
+     */
+    static TerrainPoints columns(HeightField heightField) {
+        final TerrainPoints points = new TerrainPoints(heightField.columnCount());
+        for (int index = 0; index < heightField.size(); index++) {
+            if (heightField.isPresent(index)) {
+                points.add(heightField.offsetX(index), heightField.offsetY(index), heightField.offsetZ(index),
+                        heightField.paletteIndex(index));
+            }
+        }
+        return points;
+    }
+
+    void add(double x, double y, double z, short paletteIndex) {
+        if (count == paletteIndices.length) {
+            coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+            paletteIndices = Arrays.copyOf(paletteIndices, paletteIndices.length * 2);
+        }
+        coordinates[count * 3] = x;
+        coordinates[count * 3 + 1] = y;
+        coordinates[count * 3 + 2] = z;
+        paletteIndices[count] = paletteIndex;
+        count++;
+    }
+
+    int count() {
+        return count;
+    }
+
+    double x(int point) {
+        return coordinates[point * 3];
+    }
+
+    double y(int point) {
+        return coordinates[point * 3 + 1];
+    }
+
+    double z(int point) {
+        return coordinates[point * 3 + 2];
+    }
+
+    short paletteIndex(int point) {
+        return paletteIndices[point];
+    }
+}
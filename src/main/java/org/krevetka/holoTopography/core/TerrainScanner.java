@@ -0,0 +1,262 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Сканер рельефа.
+ * Снимки чанков делаются за один проход на главном потоке,
+ * высоты и материалы колонок считаются параллельно в ForkJoinPool.
+ * Чанки, уже лежащие в общем кэше колонок или в хранилище тайлов на диске,
+ * не снимаются повторно при первом сканировании; пересканирование снимает загруженные чанки заново.
+ */
+final class TerrainScanner {
+    private final ForkJoinPool pool;
+    private final ColumnCache columnCache;
+    private final TileStore tileStore;
+
+    /**
+     * @param tileStore хранилище тайлов или null, если оно отключено
+     */
+    TerrainScanner(ColumnCache columnCache, TileStore tileStore) {
+        this.columnCache = columnCache;
+        this.tileStore = tileStore;
+        int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        this.pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("HoloTopography-Scan-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Берёт из кэша, с диска или снимает ChunkSnapshot'ы всех загруженных чанков, покрывающих круг сканирования.
+     * Незагруженные чанки не снимаются, а попадают в список missing для асинхронной подгрузки.
+     * Вызывать только с главного потока.
+     *
+     * @param refresh пересканирование: загруженные чанки снимаются заново, а не берутся из кэша или с диска
+     */
+    Capture capture(Location center, double renderDistance, boolean refresh) {
+        final World world = center.getWorld();
+        final int centerX = center.getBlockX();
+        final int centerZ = center.getBlockZ();
+        final int radius = (int) renderDistance;
+        final ColumnCache.WorldCache cache = columnCache.forWorld(world);
+        final long cacheEpoch = cache.beginScan();
+
+        final List<ChunkSnapshot> snapshots = new ArrayList<>();
+        final List<ChunkColumns> cached = new ArrayList<>();
+        final List<Long> missing = new ArrayList<>();
+        for (int chunkX = (centerX - radius) >> 4; chunkX <= (centerX + radius) >> 4; chunkX++) {
+            for (int chunkZ = (centerZ - radius) >> 4; chunkZ <= (centerZ + radius) >> 4; chunkZ++) {
+                final boolean loaded = world.isChunkLoaded(chunkX, chunkZ);
+                // Изменения без событий (WorldEdit, /fill, setType без физики) в кэш не попадают:
+                // пересканирование снимает загруженный чанк и обновляет им кэш и диск
+                final boolean resnapshot = refresh && loaded;
+                ChunkColumns columns = resnapshot ? null : cache.get(chunkX, chunkZ);
+                // С диска читаем только незагруженные чанки: мир при этом не затрагивается.
+                // Загруженный чанк мог измениться после записи тайла, и его дешевле снять заново
+                if (columns == null && !loaded && tileStore != null) {
+                    columns = tileStore.read(world, chunkX, chunkZ);
+                    if (columns != null) {
+                        cache.put(columns, cacheEpoch);
+                    }
+                }
+                if (columns != null) {
+                    cached.add(columns);
+                } else if (loaded) {
+                    // Незагруженные чанки пропускаем: синхронная загрузка остановила бы тик сервера
+                    snapshots.add(world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(true, false, false));
+                } else {
+                    missing.add(ColumnCache.chunkKey(chunkX, chunkZ));
+                }
+            }
+        }
+        // Ближние к центру чанки подгружаются первыми
+        final int centerChunkX = centerX >> 4;
+        final int centerChunkZ = centerZ >> 4;
+        missing.sort(Comparator.comparingLong(key -> {
+            final long dx = (int) (key >> 32) - centerChunkX;
+            final long dz = (int) (key & 0xFFFFFFFFL) - centerChunkZ;
+            return dx * dx + dz * dz;
+        }));
+        return new Capture(world, centerX, center.getBlockY(), centerZ, renderDistance, snapshots, cached, missing,
+                cache, cacheEpoch, System.currentTimeMillis());
+    }
+
+    /**
+     * Асинхронно обрабатывает снимки: каждый чанк — отдельная подзадача пула
+     *
+     * @param cancelled проверяется перед каждым чанком; после отмены оставшиеся чанки пропускаются
+     */
+    CompletableFuture<HeightField> scan(Capture capture, BooleanSupplier cancelled) {
+        return CompletableFuture.supplyAsync(() -> {
+            final HeightField heightField = new HeightField(capture.centerX(), capture.centerY(), capture.centerZ(),
+                    (int) capture.renderDistance());
+            try {
+                new ChunkRangeTask(capture, heightField, cancelled, 0, capture.chunkCount()).invoke();
+            } finally {
+                capture.cache().endScan();
+            }
+            heightField.recomputeBounds();
+            return heightField;
+        }, pool);
+    }
+
+    /**
+     * Колонки одного чанка: загруженного — из кэша или из снимка, незагруженного — из кэша или с диска.
+     * Возвращает null, если незагруженного чанка нет ни там, ни там. Вызывать только с главного потока.
+     */
+    ChunkColumns columnsAt(World world, int chunkX, int chunkZ) {
+        final boolean loaded = world.isChunkLoaded(chunkX, chunkZ);
+        ChunkColumns columns = loaded ? cachedAt(world, chunkX, chunkZ) : storedAt(world, chunkX, chunkZ);
+        if (columns != null || !loaded) {
+            return columns;
+        }
+        columns = ChunkColumns.of(world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(true, false, false), world.getMinHeight());
+        // Снимок сделан на главном потоке, поэтому он заведомо не старше текущей метки кэша
+        final ColumnCache.WorldCache cache = columnCache.forWorld(world);
+        final long cacheEpoch = cache.beginScan();
+        try {
+            if (cache.put(columns, cacheEpoch) && tileStore != null) {
+                tileStore.write(world, columns, System.currentTimeMillis());
+            }
+        } finally {
+            cache.endScan();
+        }
+        return columns;
+    }
+
+    /**
+     * Колонки чанка из кэша, без диска и снимка мира. Кэш сбрасывается при изменении блоков,
+     * поэтому годится и для загруженных чанков.
+     */
+    ChunkColumns cachedAt(World world, int chunkX, int chunkZ) {
+        return columnCache.forWorld(world).get(chunkX, chunkZ);
+    }
+
+    /**
+     * Колонки чанка из кэша или с диска (прочитанные с диска кладутся в кэш), без снимка мира.
+     * Тайл загруженного чанка мог устареть: для него это только грубое первое приближение.
+     * Возвращает null, если чанка нет ни там, ни там. Вызывать только с главного потока.
+     */
+    ChunkColumns storedAt(World world, int chunkX, int chunkZ) {
+        final ColumnCache.WorldCache cache = columnCache.forWorld(world);
+        ChunkColumns columns = cache.get(chunkX, chunkZ);
+        if (columns != null || tileStore == null) {
+            return columns;
+        }
+        columns = tileStore.read(world, chunkX, chunkZ);
+        if (columns != null) {
+            final long cacheEpoch = cache.beginScan();
+            try {
+                cache.put(columns, cacheEpoch);
+            } finally {
+                cache.endScan();
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Обрабатывает снимок одного подгруженного чанка в пуле сканера и кладёт его в кэш и на диск.
+     * Вызывать с главного потока сразу после снимка.
+     */
+    CompletableFuture<ChunkColumns> process(World world, ChunkSnapshot snapshot) {
+        final ColumnCache.WorldCache cache = columnCache.forWorld(world);
+        final long cacheEpoch = cache.beginScan();
+        final long capturedAt = System.currentTimeMillis();
+        final int minHeight = world.getMinHeight();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                final ChunkColumns columns = ChunkColumns.of(snapshot, minHeight);
+                if (cache.put(columns, cacheEpoch) && tileStore != null) {
+                    tileStore.write(world, columns, capturedAt);
+                }
+                return columns;
+            } finally {
+                cache.endScan();
+            }
+        }, pool);
+    }
+
+    /**
+     * Пул сканера для прочей фоновой работы движка (построение отображения карт)
+     */
+    Executor executor() {
+        return pool;
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Снимки чанков, сделанные на главном потоке, чанки, найденные в кэше или на диске,
+     * и незагруженные чанки (ключи {@link ColumnCache#chunkKey})
+     */
+    record Capture(World world, int centerX, int centerY, int centerZ, double renderDistance,
+                   List<ChunkSnapshot> snapshots, List<ChunkColumns> cached, List<Long> missing,
+                   ColumnCache.WorldCache cache, long cacheEpoch, long capturedAt) {
+
+        int chunkCount() {
+            return snapshots.size() + cached.size();
+        }
+    }
+
+    /**
+     * Делит список чанков пополам, пока на задачу не останется один чанк.
+     * Чанки не пересекаются, поэтому подзадачи пишут в общую карту высот без блокировок.
+     * Сначала идут снимки (они же пополняют кэш и хранилище тайлов), затем чанки из кэша.
+     */
+    private final class ChunkRangeTask extends RecursiveAction {
+        private final Capture capture;
+        private final HeightField heightField;
+        private final BooleanSupplier cancelled;
+        private final int from;
+        private final int to;
+
+        ChunkRangeTask(Capture capture, HeightField heightField, BooleanSupplier cancelled, int from, int to) {
+            this.capture = capture;
+            this.heightField = heightField;
+            this.cancelled = cancelled;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            if (to - from <= 1) {
+                if (from < capture.snapshots().size()) {
+                    final ChunkColumns columns = ChunkColumns.of(capture.snapshots().get(from), capture.world().getMinHeight());
+                    // Снимок, устаревший ещё до окончания сканирования, на диск не пишем
+                    if (capture.cache().put(columns, capture.cacheEpoch()) && tileStore != null) {
+                        tileStore.write(capture.world(), columns, capture.capturedAt());
+                    }
+                    heightField.fill(columns, capture.renderDistance() * capture.renderDistance());
+                } else if (from < to) {
+                    heightField.fill(capture.cached().get(from - capture.snapshots().size()),
+                            capture.renderDistance() * capture.renderDistance());
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new ChunkRangeTask(capture, heightField, cancelled, from, middle),
+                    new ChunkRangeTask(capture, heightField, cancelled, middle, to));
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Хранилище отсканированных чанков на диске, чтобы карта в уже изученной
+ * местности открывалась без обращения к миру.
+ * <p>
+ * Чанки лежат в файлах регионов 32x32 чанка (tiles/&lt;мир&gt;/r.X.Z.tile), которые
+ * отображаются в память целиком. Формат файла:
+ * <pre>
+ * заголовок   16 байт: магическое число, версия формата, отпечаток таблицы материалов, резерв
+ * индекс      1024 * 8 байт: время записи каждого чанка (0 — чанка нет)
+ * данные      1024 * 1024 байт: 256 высот и 256 номеров материалов (short) на чанк
+ * </pre>
+ * Номера материалов — Material.ordinal(), поэтому при смене версии сервера
+ * (другой отпечаток таблицы материалов) весь индекс региона сбрасывается.
+ * <p>
+ * Открытыми держатся не больше maxOpenRegions регионов (около 1 МБ отображённой памяти каждый):
+ * давно не использованный регион сбрасывается на диск и закрывается (LRU).
+ */
+final class TileStore {
+    private static final int MAGIC = 0x484F4C54; // "HOLT"
+    private static final int FORMAT_VERSION = 1;
+    private static final int REGION_CHUNKS = 32;
+    private static final int SLOTS = REGION_CHUNKS * REGION_CHUNKS;
+    private static final int HEADER_BYTES = 16;
+    private static final int INDEX_OFFSET = HEADER_BYTES;
+    private static final int DATA_OFFSET = INDEX_OFFSET + SLOTS * Long.BYTES;
+    private static final int TILE_BYTES = ChunkColumns.COLUMNS * 2 * Short.BYTES;
+    private static final int FILE_BYTES = DATA_OFFSET + SLOTS * TILE_BYTES;
+
+    private final Path directory;
+    private final long maxAgeMillis;
+    private final int materialFingerprint;
+    private final Logger logger;
+
+    // Открытые регионы в порядке использования и регионы, файлов которых нет
+    // (чтобы не проверять диск на каждое событие блока)
+    private final LinkedHashMap<RegionKey, Region> regions;
+    private final Set<RegionKey> missing = new HashSet<>();
+
+    /**
+     * @param maxAgeSeconds  чанки старше этого возраста считаются устаревшими (0 — без ограничения)
+     * @param maxOpenRegions сколько файлов регионов держать отображёнными в память одновременно
+     */
+    TileStore(Path directory, long maxAgeSeconds, int maxOpenRegions, Logger logger) {
+        this.directory = directory;
+        this.maxAgeMillis = maxAgeSeconds > 0 ? maxAgeSeconds * 1000L : Long.MAX_VALUE;
+        this.materialFingerprint = materialFingerprint();
+        this.logger = logger;
+        final int maxRegions = Math.max(1, maxOpenRegions);
+        this.regions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<RegionKey, Region> eldest) {
+                if (size() <= maxRegions) {
+                    return false;
+                }
+                eldest.getValue().close();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Чанк с диска или null, если его нет или он устарел.
+     * Поиск региона и работа с ним идут под одной блокировкой: вытесненный регион закрывается
+     * до того, как тот же файл отобразится заново, и чтение не видит недописанный чанк.
+     */
+    synchronized ChunkColumns read(World world, int chunkX, int chunkZ) {
+        final Region region = region(world, chunkX, chunkZ, false);
+        if (region == null) {
+            return null;
+        }
+        return region.read(chunkX, chunkZ, System.currentTimeMillis() - maxAgeMillis);
+    }
+
+    /**
+     * Сохраняет чанк (можно вызывать вне главного потока)
+     *
+     * @param capturedAt время снятия данных чанка
+     */
+    synchronized void write(World world, ChunkColumns columns, long capturedAt) {
+        final Region region = region(world, columns.chunkX(), columns.chunkZ(), true);
+        if (region != null) {
+            region.write(columns, capturedAt);
+        }
+    }
+
+    /**
+     * Помечает чанк как отсутствующий, например после изменения блоков в нём
+     */
+    synchronized void invalidate(World world, int chunkX, int chunkZ) {
+        final Region region = region(world, chunkX, chunkZ, false);
+        if (region != null) {
+            region.invalidate(chunkX, chunkZ);
+        }
+    }
+
+    /**
+     * Сбрасывает изменения на диск и закрывает файлы регионов
+     */
+    synchronized void close() {
+        for (Region region : regions.values()) {
+            region.close();
+        }
+        regions.clear();
+        missing.clear();
+    }
+
+    /**
+     * Число открытых сейчас файлов регионов
+     */
+    synchronized int openRegions() {
+        return regions.size();
+    }
+
+    private Region region(World world, int chunkX, int chunkZ, boolean create) {
+        final RegionKey key = new RegionKey(world.getUID(), chunkX >> 5, chunkZ >> 5);
+        final Region open = regions.get(key);
+        if (open != null) {
+            return open;
+        }
+        if (!create && missing.contains(key)) {
+            return null;
+        }
+        final Path file = directory.resolve(key.worldId().toString())
+                .resolve("r." + key.regionX() + "." + key.regionZ() + ".tile");
+        if (!create && !Files.exists(file)) {
+            missing.add(key);
+            return null;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            final Region region = new Region(file);
+            regions.put(key, region);
+            missing.remove(key);
+            return region;
+        } catch (IOException e) {
+            logger.warning("Не удалось открыть файл тайлов " + file + ": " + e.getMessage());
+            missing.add(key);
+            return null;
+        }
+    }
+
+    /**
+     * Отпечаток порядка материалов: номера материалов в файлах верны только при совпадении
+     */
+    private static int materialFingerprint() {
+        int hash = 1;
+        for (Material material : Material.values()) {
+            hash = 31 * hash + material.name().hashCode();
+        }
+        return hash;
+    }
+
+    private record RegionKey(UUID worldId, int regionX, int regionZ) {}
+
+    /**
+     * Файл одного региона, отображённый в память. В регион пишут потоки пула сканера,
+     * поэтому все обращения к нему идут под блокировкой хранилища.
+     */
+    private final class Region {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        Region(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION || buffer.getInt(8) != materialFingerprint) {
+                // Новый файл или файл от другой версии: данные в нём недействительны
+                for (int slot = 0; slot < SLOTS; slot++) {
+                    buffer.putLong(INDEX_OFFSET + slot * Long.BYTES, 0L);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, FORMAT_VERSION);
+                buffer.putInt(8, materialFingerprint);
+            }
+        }
+
+        ChunkColumns read(int chunkX, int chunkZ, long notBefore) {
+            final int slot = slot(chunkX, chunkZ);
+            final long timestamp = buffer.getLong(INDEX_OFFSET + slot * Long.BYTES);
+            if (timestamp == 0L || timestamp < notBefore) {
+                return null;
+            }
+            final short[] heights = new short[ChunkColumns.COLUMNS];
+            final short[] materials = new short[ChunkColumns.COLUMNS];
+            int offset = DATA_OFFSET + slot * TILE_BYTES;
+            for (int column = 0; column < ChunkColumns.COLUMNS; column++, offset += Short.BYTES) {
+                heights[column] = buffer.getShort(offset);
+            }
+            for (int column = 0; column < ChunkColumns.COLUMNS; column++, offset += Short.BYTES) {
+                materials[column] = buffer.getShort(offset);
+            }
+            return new ChunkColumns(chunkX, chunkZ, heights, materials);
+        }
+
+        void write(ChunkColumns columns, long capturedAt) {
+            final int slot = slot(columns.chunkX(), columns.chunkZ());
+            int offset = DATA_OFFSET + slot * TILE_BYTES;
+            for (int localX = 0; localX < 16; localX++) {
+                for (int localZ = 0; localZ < 16; localZ++, offset += Short.BYTES) {
+                    buffer.putShort(offset, (short) columns.height(localX, localZ));
+                }
+            }
+            for (int localX = 0; localX < 16; localX++) {
+                for (int localZ = 0; localZ < 16; localZ++, offset += Short.BYTES) {
+                    buffer.putShort(offset, (short) columns.materialOrdinal(localX, localZ));
+                }
+            }
+            // Время пишем последним: до этого момента чанк считается отсутствующим
+            buffer.putLong(INDEX_OFFSET + slot * Long.BYTES, Math.max(1L, capturedAt));
+        }
+
+        void invalidate(int chunkX, int chunkZ) {
+            buffer.putLong(INDEX_OFFSET + slot(chunkX, chunkZ) * Long.BYTES, 0L);
+        }
+
+        void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                logger.warning("Не удалось сохранить файл тайлов: " + e.getMessage());
+            }
+        }
+
+        private int slot(int chunkX, int chunkZ) {
+            return (chunkX & (REGION_CHUNKS - 1)) * REGION_CHUNKS + (chunkZ & (REGION_CHUNKS - 1));
+        }
+    }
+}
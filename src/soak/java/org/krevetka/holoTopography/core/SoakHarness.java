@@ -0,0 +1,219 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.krevetka.holoTopography.HoloTopography;
+import org.mockbukkit.mockbukkit.MockBukkit;
+import org.mockbukkit.mockbukkit.ServerMock;
+import org.mockbukkit.mockbukkit.entity.PlayerMock;
+import org.mockbukkit.mockbukkit.world.ChunkMock;
+import org.mockbukkit.mockbukkit.world.WorldMock;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Нагрузочный прогон плагина без сервера: MockBukkit, мир с синтетическим рельефом
+ * и N игроков, каждый из которых выполняет /holotopo create.
+ * Для каждого N планировщик прокручивается заданное число тиков, после чего карты
+ * останавливаются и плагин выключается.
+ * <p>
+ * В отчёт (строки key=value в постоянном порядке, чтобы сравнивать сборки diff'ом) попадают
+ * время главного потока за тик, очередь сканирований, рост кучи и задачи плагина,
+ * оставшиеся в планировщике после остановки карт и после выключения. Если задачи
+ * остались, процесс завершается с кодом 1.
+ * <p>
+ * Аргументы: число игроков через запятую, число тиков, путь к отчёту.
+ */
+public final class SoakHarness {
+    private static final int MAP_RADIUS = 30;
+    // Игроки стоят на таком расстоянии, чтобы их карты не делили чанки
+    private static final int PLAYER_SPACING = 4 * MAP_RADIUS;
+    private static final int SAMPLE_INTERVAL_TICKS = 20;
+    private static final int SETTLE_TICKS = 100;
+
+    public static void main(String[] args) throws IOException {
+        final String[] playerCounts = (args.length > 0 ? args[0] : "10,50,200").split(",");
+        final int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+        final Path reportPath = Path.of(args.length > 2 ? args[2] : "soak-report.txt");
+
+        final List<String> report = new ArrayList<>();
+        int leaked = 0;
+        for (String playerCount : playerCounts) {
+            final Scenario scenario = run(Integer.parseInt(playerCount.trim()), ticks);
+            report.addAll(scenario.lines());
+            leaked += scenario.tasksAfterStop() + scenario.tasksAfterDisable();
+        }
+        Files.createDirectories(reportPath.toAbsolutePath().getParent());
+        Files.write(reportPath, report);
+        report.forEach(System.out::println);
+        if (leaked > 0) {
+            System.err.println("Задачи плагина остались в планировщике: " + leaked);
+            System.exit(1);
+        }
+    }
+
+    private static Scenario run(int players, int ticks) {
+        final SoakServer server = MockBukkit.mock(new SoakServer());
+        try {
+            final SoakWorld world = new SoakWorld();
+            server.addWorld(world);
+            final HoloTopography plugin = MockBukkit.load(HoloTopography.class);
+            final Engine engine = plugin.getEngine();
+            final int baseTasks = pendingTasks(server, plugin);
+
+            final List<PlayerMock> mocks = new ArrayList<>();
+            for (int i = 0; i < players; i++) {
+                final PlayerMock player = server.addPlayer();
+                player.teleport(new Location(world, i * PLAYER_SPACING + 0.5, 80, 0.5));
+                mocks.add(player);
+            }
+            settle(server);
+            final long heapBefore = usedHeap();
+            for (PlayerMock player : mocks) {
+                player.performCommand("holotopo create " + MAP_RADIUS);
+            }
+
+            final Metrics.Histogram tickNanos = new Metrics.Histogram();
+            int maxBacklog = 0;
+            long backlogSum = 0;
+            int samples = 0;
+            for (int tick = 0; tick < ticks; tick++) {
+                final long start = System.nanoTime();
+                server.getScheduler().performOneTick();
+                final long elapsed = System.nanoTime() - start;
+                tickNanos.record(elapsed);
+                server.lastTickNanos = elapsed;
+                if (tick % SAMPLE_INTERVAL_TICKS == 0) {
+                    final Metrics.Snapshot stats = engine.stats();
+                    final int backlog = stats.scansRunning() + stats.scansQueued() + stats.prefetchInFlight();
+                    maxBacklog = Math.max(maxBacklog, backlog);
+                    backlogSum += backlog;
+                    samples++;
+                }
+            }
+            final Metrics.Snapshot stats = engine.stats();
+            final long heapAfter = usedHeap();
+
+            for (PlayerMock player : mocks) {
+                player.performCommand("holotopo stop");
+            }
+            settle(server);
+            final int tasksAfterStop = pendingTasks(server, plugin) - baseTasks;
+            final int sessionsAfterStop = engine.stats().activeSessions();
+            server.getPluginManager().disablePlugin(plugin);
+            settle(server);
+            final int tasksAfterDisable = pendingTasks(server, plugin);
+
+            final List<String> lines = new ArrayList<>();
+            final String prefix = "players." + players + ".";
+            lines.add(prefix + "ticks=" + ticks);
+            lines.add(prefix + "tick_mean_us=" + format(tickNanos.mean() / 1000));
+            lines.add(prefix + "tick_p50_us=" + format(tickNanos.percentile(0.5) / 1000.0));
+            lines.add(prefix + "tick_p99_us=" + format(tickNanos.percentile(0.99) / 1000.0));
+            lines.add(prefix + "tick_max_us=" + format(tickNanos.max() / 1000.0));
+            lines.add(prefix + "engine_tick_p99_us=" + format(stats.tickP99Nanos() / 1000.0));
+            lines.add(prefix + "scans=" + stats.scans());
+            lines.add(prefix + "scan_p99_ms=" + stats.scanP99Millis());
+            lines.add(prefix + "backlog_max=" + maxBacklog);
+            lines.add(prefix + "backlog_mean=" + format(samples == 0 ? 0 : (double) backlogSum / samples));
+            lines.add(prefix + "particles_per_tick=" + format(stats.particlesPerTick()));
+            lines.add(prefix + "quality=" + format(stats.quality()));
+            lines.add(prefix + "heap_growth_mb=" + format((heapAfter - heapBefore) / (1024.0 * 1024.0)));
+            lines.add(prefix + "sessions_after_stop=" + sessionsAfterStop);
+            lines.add(prefix + "tasks_after_stop=" + tasksAfterStop);
+            lines.add(prefix + "tasks_after_disable=" + tasksAfterDisable);
+            return new Scenario(lines, Math.max(0, tasksAfterStop), tasksAfterDisable);
+        } finally {
+            MockBukkit.unmock();
+        }
+    }
+
+    /**
+     * Даёт отработать отложенным задачам (ответы сканирований, остановка сессий)
+     */
+    private static void settle(ServerMock server) {
+        for (int tick = 0; tick < SETTLE_TICKS; tick++) {
+            server.getScheduler().performOneTick();
+        }
+    }
+
+    private static int pendingTasks(ServerMock server, Plugin plugin) {
+        int count = 0;
+        for (BukkitTask task : server.getScheduler().getPendingTasks()) {
+            if (task.getOwner() == plugin && !task.isCancelled()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    private record Scenario(List<String> lines, int tasksAfterStop, int tasksAfterDisable) {}
+
+    /**
+     * Сервер, отдающий движку среднее время тика по последнему замеру прогона
+     */
+    static final class SoakServer extends ServerMock {
+        long lastTickNanos;
+
+        @Override
+        public double getAverageTickTime() {
+            return lastTickNanos / 1_000_000.0;
+        }
+    }
+
+    /**
+     * Мир, в котором все чанки загружены, а снимки чанков берутся из SyntheticTerrain.
+     * Частицы не отправляются, только считаются движком.
+     */
+    static final class SoakWorld extends WorldMock {
+        private final SyntheticTerrain terrain = new SyntheticTerrain(42);
+
+        @Override
+        public boolean isChunkLoaded(int x, int z) {
+            return true;
+        }
+
+        @Override
+        public @NotNull ChunkMock getChunkAt(int x, int z) {
+            return new SoakChunk(this, x, z);
+        }
+
+        @Override
+        public <T> void spawnParticle(@NotNull Particle particle, List<Player> receivers, Player source, double x, double y,
+                                      double z, int count, double offsetX, double offsetY, double offsetZ, double extra,
+                                      T data, boolean force) {
+        }
+
+        private final class SoakChunk extends ChunkMock {
+            SoakChunk(SoakWorld world, int x, int z) {
+                super(world, x, z);
+            }
+
+            @Override
+            public @NotNull ChunkSnapshot getChunkSnapshot(boolean includeMaxBlockY, boolean includeBiome,
+                                                           boolean includeBiomeTempRain) {
+                return terrain.snapshot(getX(), getZ());
+            }
+        }
+    }
+}
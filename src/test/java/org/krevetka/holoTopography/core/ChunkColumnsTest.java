@@ -0,0 +1,68 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ChunkColumnsTest {
+    private static final int MIN_HEIGHT = -64;
+
+    /**
+     * Снимок чанка из одного воздуха: как в пустоте, верхний блок на единицу ниже мира,
+     * а чтение блока вне высот мира бросает исключение, как настоящий снимок
+     */
+    private static ChunkSnapshot emptySnapshot(int chunkX, int chunkZ) {
+        return (ChunkSnapshot) Proxy.newProxyInstance(ChunkSnapshot.class.getClassLoader(),
+                new Class<?>[]{ChunkSnapshot.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "getX" -> chunkX;
+                    case "getZ" -> chunkZ;
+                    case "getHighestBlockYAt" -> MIN_HEIGHT - 1;
+                    case "getBlockType" -> {
+                        if ((int) args[1] < MIN_HEIGHT) {
+                            throw new IllegalArgumentException("y out of range: " + args[1]);
+                        }
+                        yield Material.AIR;
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Test
+    void emptyColumnsAreStoredAsAirAtMinHeight() {
+        final ChunkColumns columns = ChunkColumns.of(emptySnapshot(3, -2), MIN_HEIGHT);
+
+        assertEquals(3, columns.chunkX());
+        assertEquals(-2, columns.chunkZ());
+        for (int localX = 0; localX < 16; localX++) {
+            for (int localZ = 0; localZ < 16; localZ++) {
+                assertEquals(MIN_HEIGHT, columns.height(localX, localZ));
+                assertEquals(Material.AIR, columns.material(localX, localZ));
+            }
+        }
+    }
+
+    @Test
+    void emptyColumnsAreNotDisplayed() {
+        // Чанк (0, 0) занимает смещения от -8 до 7 вокруг центра (8, 8)
+        final HeightField heightField = new HeightField(8, 64, 8, 8);
+        for (int offsetX = -8; offsetX < 8; offsetX++) {
+            for (int offsetZ = -8; offsetZ < 8; offsetZ++) {
+                heightField.set(heightField.indexOf(offsetX, offsetZ), 70, Material.STONE);
+            }
+        }
+        heightField.fill(ChunkColumns.of(emptySnapshot(0, 0), MIN_HEIGHT), 8 * 8);
+
+        for (int offsetX = -8; offsetX < 8; offsetX++) {
+            for (int offsetZ = -8; offsetZ < 8; offsetZ++) {
+                if (offsetX * offsetX + offsetZ * offsetZ <= 8 * 8) {
+                    assertFalse(heightField.isPresent(heightField.indexOf(offsetX, offsetZ)));
+                }
+            }
+        }
+    }
+}
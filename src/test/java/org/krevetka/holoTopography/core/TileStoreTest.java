@@ -0,0 +1,89 @@
+package org.krevetka.holoTopography.core;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class TileStoreTest {
+    private static final int MAX_OPEN_REGIONS = 4;
+    private static final Logger LOGGER = Logger.getLogger("TileStoreTest");
+
+    private static World world(UUID id) {
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[]{World.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getUID" -> id;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * Чанк, во всех колонках которого высота height и камень
+     */
+    private static ChunkColumns chunk(int chunkX, int chunkZ, int height) {
+        final short[] heights = new short[ChunkColumns.COLUMNS];
+        final short[] materials = new short[ChunkColumns.COLUMNS];
+        for (int column = 0; column < ChunkColumns.COLUMNS; column++) {
+            heights[column] = (short) height;
+            materials[column] = (short) Material.STONE.ordinal();
+        }
+        return new ChunkColumns(chunkX, chunkZ, heights, materials);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void openRegionsStayWithinLimit() throws IOException {
+        final Path directory = Files.createTempDirectory("tiles");
+        final TileStore store = new TileStore(directory, 0, MAX_OPEN_REGIONS, LOGGER);
+        try {
+            final World world = world(UUID.randomUUID());
+            // Каждый чанк — в своём регионе 32x32 чанка
+            for (int region = 0; region < MAX_OPEN_REGIONS * 3; region++) {
+                store.write(world, chunk(region * 32, 0, region), 1000L);
+                assertEquals(Math.min(region + 1, MAX_OPEN_REGIONS), store.openRegions());
+            }
+        } finally {
+            store.close();
+            delete(directory);
+        }
+    }
+
+    @Test
+    void evictedRegionIsSavedAndReopened() throws IOException {
+        final Path directory = Files.createTempDirectory("tiles");
+        final TileStore store = new TileStore(directory, 0, MAX_OPEN_REGIONS, LOGGER);
+        try {
+            final World world = world(UUID.randomUUID());
+            for (int region = 0; region <= MAX_OPEN_REGIONS; region++) {
+                store.write(world, chunk(region * 32, 0, 70 + region), 1000L);
+            }
+            // Первый регион вытеснен: чанк читается из закрытого файла заново
+            final ChunkColumns first = store.read(world, 0, 0);
+            assertNotNull(first);
+            assertEquals(70, first.height(5, 7));
+            assertEquals(Material.STONE, first.material(5, 7));
+            assertEquals(MAX_OPEN_REGIONS, store.openRegions());
+        } finally {
+            store.close();
+            delete(directory);
+        }
+    }
+}